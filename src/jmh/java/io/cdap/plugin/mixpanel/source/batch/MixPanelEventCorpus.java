@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.io.Text;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Synthetic export corpus shaped like events of {@code src/test/resources/events.jsonl}: a few event names, default
+ * properties of MixPanel libraries, and custom properties with names containing spaces and '$' prefixes. Every third
+ * custom property is numeric, so typed schemas convert values. Corpus is generated from fixed seed, so runs are
+ * comparable.
+ */
+public class MixPanelEventCorpus {
+  private static final String[] EVENT_NAMES = {"Plan Upgraded", "Custom Event", "Page View", "Signup"};
+  private static final String[] NAME_FORMATS = {"data %d", "$custom_%d", "Old Plan %d", "mp_prop_%d"};
+
+  private final List<String> propertyNames = new ArrayList<>();
+  private final Map<String, Schema.Type> propertyTypes = new LinkedHashMap<>();
+  private final Map<String, Schema.Type> customPropertyTypes = new LinkedHashMap<>();
+  private final byte[] bytes;
+  private final Text[] events;
+
+  /**
+   * @param events number of events
+   * @param properties number of custom properties of every event
+   * @param valueWidth length of string property values
+   */
+  public MixPanelEventCorpus(int events, int properties, int valueWidth) {
+    propertyTypes.put(MixPanelSchemaHelper.DISTINCT_ID_FIELD, Schema.Type.STRING);
+    propertyTypes.put(MixPanelSchemaHelper.TIME_FIELD, Schema.Type.LONG);
+    propertyTypes.put("mp_lib", Schema.Type.STRING);
+    propertyTypes.put("$lib_version", Schema.Type.STRING);
+    for (int i = 0; i < properties; i++) {
+      customPropertyTypes.put(String.format(NAME_FORMATS[i % NAME_FORMATS.length], i),
+                              i % 3 == 0 ? Schema.Type.LONG : Schema.Type.STRING);
+    }
+    propertyTypes.putAll(customPropertyTypes);
+    propertyNames.addAll(propertyTypes.keySet());
+
+    Random random = new Random(42);
+    StringBuilder builder = new StringBuilder();
+    this.events = new Text[events];
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    for (int i = 0; i < events; i++) {
+      builder.setLength(0);
+      builder.append("{\"event\":\"").append(EVENT_NAMES[i % EVENT_NAMES.length]).append("\",\"properties\":{");
+      builder.append("\"distinct_id\":\"").append(randomString(random, 16)).append('"');
+      builder.append(",\"time\":").append(1518314400L + i);
+      builder.append(",\"mp_lib\":\"python\",\"$lib_version\":\"1.0\"");
+      for (Map.Entry<String, Schema.Type> property : customPropertyTypes.entrySet()) {
+        builder.append(",\"").append(property.getKey()).append("\":");
+        if (property.getValue() == Schema.Type.LONG) {
+          builder.append(random.nextInt(1000000));
+        } else {
+          builder.append('"').append(randomString(random, valueWidth)).append('"');
+        }
+      }
+      builder.append("}}");
+      byte[] event = builder.toString().getBytes(StandardCharsets.UTF_8);
+      this.events[i] = new Text(event);
+      outputStream.write(event, 0, event.length);
+      outputStream.write('\n');
+    }
+    this.bytes = outputStream.toByteArray();
+  }
+
+  private static String randomString(Random random, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Returns raw property names, including default ones.
+   */
+  public List<String> getPropertyNames() {
+    return propertyNames;
+  }
+
+  /**
+   * Returns schema discovered for the corpus, with all fields strings or with inferred types.
+   */
+  public Schema getSchema(boolean inferTypes) {
+    List<Schema.Field> fields = new ArrayList<>();
+    fields.add(Schema.Field.of(MixPanelSchemaHelper.EVENT_NAME_FIELD,
+                               Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    for (Map.Entry<String, Schema.Type> property : propertyTypes.entrySet()) {
+      Schema schema;
+      if (!inferTypes) {
+        schema = Schema.of(Schema.Type.STRING);
+      } else if (property.getKey().equals(MixPanelSchemaHelper.TIME_FIELD)) {
+        schema = Schema.of(Schema.LogicalType.TIMESTAMP_MICROS);
+      } else {
+        schema = Schema.of(property.getValue());
+      }
+      fields.add(Schema.Field.of(MixPanelSchemaHelper.escapeFieldName(property.getKey()), Schema.nullableOf(schema)));
+    }
+    return Schema.recordOf("mixPanelRecord", fields);
+  }
+
+  /**
+   * Returns export response body, events separated by new lines.
+   */
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns export response body compressed the way MixPanel compresses it when gzip is accepted.
+   */
+  public byte[] getGzipBytes() throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+      gzipOutputStream.write(bytes);
+    }
+    return outputStream.toByteArray();
+  }
+
+  public Text[] getEvents() {
+    return events;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures records per second of converting exported events to records, in raw mode and in schema by events mode,
+ * with all properties or with a few listed ones.
+ * Run with {@code -prof gc} to see allocation per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixPanelEventParserBenchmark {
+  static final int EVENTS = 1000;
+  // properties listed by projected benchmark, including default ones
+  static final int PROJECTED_PROPERTIES = 6;
+
+  @Param({"8", "64", "256"})
+  public int properties;
+
+  @Param({"8", "64"})
+  public int valueWidth;
+
+  private Text[] events;
+  private MixPanelEventParser stringParser;
+  private MixPanelEventParser typedParser;
+  private MixPanelEventParser projectedParser;
+
+  @Setup
+  public void setUp() {
+    MixPanelEventCorpus corpus = new MixPanelEventCorpus(EVENTS, properties, valueWidth);
+    events = corpus.getEvents();
+    stringParser = new MixPanelEventParser(new MixPanelFieldMapping(corpus.getSchema(false),
+                                                                    corpus.getPropertyNames()));
+    typedParser = new MixPanelEventParser(new MixPanelFieldMapping(corpus.getSchema(true),
+                                                                   corpus.getPropertyNames()));
+    List<String> projectedNames = corpus.getPropertyNames().subList(0, PROJECTED_PROPERTIES);
+    Schema schema = corpus.getSchema(false);
+    Set<String> projectedFieldNames = projectedNames.stream()
+      .map(MixPanelSchemaHelper::escapeFieldName)
+      .collect(Collectors.toSet());
+    projectedFieldNames.add(MixPanelSchemaHelper.EVENT_NAME_FIELD);
+    List<Schema.Field> projectedFields = schema.getFields().stream()
+      .filter(field -> projectedFieldNames.contains(field.getName()))
+      .collect(Collectors.toList());
+    projectedParser = new MixPanelEventParser(
+      MixPanelFieldMapping.forProperties(Schema.recordOf(schema.getRecordName(), projectedFields), projectedNames));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public void rawEvents(Blackhole blackhole) {
+    for (Text event : events) {
+      blackhole.consume(MixPanelSchemaHelper.getRawEventRecord(event));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public void schemaByEvents(Blackhole blackhole) throws IOException {
+    for (Text event : events) {
+      blackhole.consume(stringParser.parse(event));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public void schemaByEventsWithTypes(Blackhole blackhole) throws IOException {
+    for (Text event : events) {
+      blackhole.consume(typedParser.parse(event));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public void schemaByEventsProjected(Blackhole blackhole) throws IOException {
+    for (Text event : events) {
+      blackhole.consume(projectedParser.parse(event));
+    }
+  }
+}
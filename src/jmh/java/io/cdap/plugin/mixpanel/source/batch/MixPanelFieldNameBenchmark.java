@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures escaping of raw property names, done once per name during schema discovery, against lookup of fields done
+ * for every property of every event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixPanelFieldNameBenchmark {
+  @Param({"64"})
+  public int properties;
+
+  private List<String> propertyNames;
+  private MixPanelFieldMapping fieldMapping;
+
+  @Setup
+  public void setUp() {
+    MixPanelEventCorpus corpus = new MixPanelEventCorpus(1, properties, 8);
+    propertyNames = corpus.getPropertyNames();
+    fieldMapping = new MixPanelFieldMapping(corpus.getSchema(false), propertyNames);
+  }
+
+  @Benchmark
+  public void escapeFieldName(Blackhole blackhole) {
+    for (String propertyName : propertyNames) {
+      blackhole.consume(MixPanelSchemaHelper.escapeFieldName(propertyName));
+    }
+  }
+
+  @Benchmark
+  public void getField(Blackhole blackhole) {
+    for (String propertyName : propertyNames) {
+      blackhole.consume(fieldMapping.getField(propertyName));
+    }
+  }
+}
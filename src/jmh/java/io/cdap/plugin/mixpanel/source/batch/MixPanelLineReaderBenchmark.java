@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Measures records per second of splitting export stream to events, the way {@link MixPanelApi.RawEventsIterator}
+ * reads it, for plain and gzip compressed responses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MixPanelLineReaderBenchmark {
+  static final int EVENTS = 1000;
+
+  @Param({"8", "64", "256"})
+  public int properties;
+
+  @Param({"8", "64"})
+  public int valueWidth;
+
+  @Param({"false", "true"})
+  public boolean gzip;
+
+  private final Text event = new Text();
+  private byte[] bytes;
+
+  @Setup
+  public void setUp() throws IOException {
+    MixPanelEventCorpus corpus = new MixPanelEventCorpus(EVENTS, properties, valueWidth);
+    bytes = gzip ? corpus.getGzipBytes() : corpus.getBytes();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public long readLines() throws IOException {
+    InputStream inputStream = new ByteArrayInputStream(bytes);
+    if (gzip) {
+      inputStream = new GZIPInputStream(inputStream, MixPanelApi.DEFAULT_DECOMPRESSION_BUFFER_SIZE);
+    }
+    long length = 0;
+    try (MixPanelLineReader lineReader = new MixPanelLineReader(inputStream)) {
+      while (lineReader.nextLine()) {
+        event.set(lineReader.getBuffer(), lineReader.getLineStart(), lineReader.getLineLength());
+        length += event.getLength();
+      }
+    }
+    return length;
+  }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import io.cdap.cdap.api.dataset.lib.KeyValue;
+import io.cdap.cdap.etl.api.Emitter;
+import io.cdap.cdap.etl.api.InvalidEntry;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.cdap.etl.api.batch.BatchRuntimeContext;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.JobContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End to end load benchmark of the source against {@link MixPanelMockServer}. Splits are planned by
+ * {@link MixPanelInputFormat} and read by {@link MixPanelRecordReader}s on a pool of threads standing in for map tasks,
+ * every event is transformed by {@link MixPanelBatchSource}. Reports wall time, throughput, GC and source metrics.
+ *
+ * <p>Arguments are {@code name=value} pairs, see {@link #DEFAULTS}. Run with
+ * {@code mvn -P benchmark -DskipTests test-compile exec:exec@load-benchmark -Dload.args="days=8 gzip=true"}.</p>
+ */
+public class MixPanelLoadBenchmark {
+  private static final Map<String, String> DEFAULTS = new TreeMap<>();
+
+  static {
+    DEFAULTS.put("days", "4");
+    DEFAULTS.put("eventsPerDay", "500000");
+    DEFAULTS.put("properties", "32");
+    DEFAULTS.put("valueWidth", "16");
+    DEFAULTS.put("latencyMillis", "100");
+    // 0 for unlimited
+    DEFAULTS.put("bandwidthMbps", "0");
+    DEFAULTS.put("chunkSize", "8192");
+    DEFAULTS.put("throttleRate", "0");
+    DEFAULTS.put("gzip", "true");
+    DEFAULTS.put("readers", "4");
+    DEFAULTS.put("maxSplits", "100");
+    DEFAULTS.put("daysPerSplit", "1");
+    DEFAULTS.put("splitWindowMinutes", "");
+    DEFAULTS.put("schemaByEvents", "true");
+    DEFAULTS.put("inferTypes", "false");
+    DEFAULTS.put("maxRetries", "5");
+    DEFAULTS.put("maxRetryDelaySeconds", "5");
+    DEFAULTS.put("prefetch", "false");
+    DEFAULTS.put("prefetchBufferSize", "8388608");
+    DEFAULTS.put("streamsPerSplit", "1");
+    DEFAULTS.put("streamWindowMinutes", "60");
+    DEFAULTS.put("orderedStreams", "false");
+    DEFAULTS.put("parserThreads", "");
+    DEFAULTS.put("samplingRate", "1");
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> arguments = new HashMap<>(DEFAULTS);
+    for (String arg : args) {
+      String[] pair = arg.split("=", 2);
+      if (pair.length != 2 || !DEFAULTS.containsKey(pair[0])) {
+        throw new IllegalArgumentException(String.format("Unknown argument '%s', expected name=value of %s.",
+                                                         arg, DEFAULTS.keySet()));
+      }
+      arguments.put(pair[0], pair[1]);
+    }
+    System.out.println("Arguments: " + new TreeMap<>(arguments));
+
+    int days = Integer.parseInt(arguments.get("days"));
+    int readers = Integer.parseInt(arguments.get("readers"));
+    MixPanelMockServer.Settings settings = new MixPanelMockServer.Settings(
+      Long.parseLong(arguments.get("eventsPerDay")),
+      Integer.parseInt(arguments.get("properties")),
+      Integer.parseInt(arguments.get("valueWidth")),
+      Long.parseLong(arguments.get("latencyMillis")),
+      (long) (Double.parseDouble(arguments.get("bandwidthMbps")) * 1000 * 1000 / 8),
+      Integer.parseInt(arguments.get("chunkSize")),
+      Double.parseDouble(arguments.get("throttleRate")),
+      Boolean.parseBoolean(arguments.get("gzip")));
+
+    try (MixPanelMockServer server = new MixPanelMockServer(settings)) {
+      String splitWindowMinutes = arguments.get("splitWindowMinutes");
+      String parserThreads = arguments.get("parserThreads");
+      LocalDate fromDate = LocalDate.of(2019, 10, 1);
+      MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+        .setReferenceName("benchmark")
+        .setApiSecret("secret")
+        .setMixPanelDataUrl(server.getUrl() + "/api/2.0/export/")
+        .setMixPanelRestApiUrl(server.getUrl())
+        .setFromDate(fromDate.toString())
+        .setToDate(fromDate.plusDays(days - 1).toString())
+        .setEvents("Plan Upgraded,Custom Event,Page View,Signup")
+        .setSchemaByEvents(Boolean.parseBoolean(arguments.get("schemaByEvents")) ? "on" : "off")
+        .setInferTypes(Boolean.parseBoolean(arguments.get("inferTypes")) ? "on" : "off")
+        .setMaxSplits(Integer.parseInt(arguments.get("maxSplits")))
+        .setDaysPerSplit(Integer.parseInt(arguments.get("daysPerSplit")))
+        .setSplitWindowMinutes(splitWindowMinutes.isEmpty() ? null : Integer.parseInt(splitWindowMinutes))
+        .setMaxConnections(readers * Integer.parseInt(arguments.get("streamsPerSplit")))
+        .setMaxRetries(Integer.parseInt(arguments.get("maxRetries")))
+        .setMaxRetryDelaySeconds(Integer.parseInt(arguments.get("maxRetryDelaySeconds")))
+        .setPrefetch(Boolean.parseBoolean(arguments.get("prefetch")) ? "on" : "off")
+        .setPrefetchBufferSize(Integer.parseInt(arguments.get("prefetchBufferSize")))
+        .setStreamsPerSplit(Integer.parseInt(arguments.get("streamsPerSplit")))
+        .setStreamWindowMinutes(Integer.parseInt(arguments.get("streamWindowMinutes")))
+        .setOrderedStreams(Boolean.parseBoolean(arguments.get("orderedStreams")) ? "on" : "off")
+        .setParserThreads(parserThreads.isEmpty() ? null : Integer.parseInt(parserThreads))
+        .setSamplingRate(Double.parseDouble(arguments.get("samplingRate")))
+        .build();
+      System.out.printf("Serving about %d MB of uncompressed events.%n", server.getExportSize(days) >> 20);
+      run(config, readers);
+    }
+  }
+
+  private static void run(MixPanelBatchSourceConfig config, int readers) throws Exception {
+    SummingMetrics metrics = new SummingMetrics();
+    Schema schema = config.getSchema();
+    // source uses only metrics, output schema and identity of the stage run of the context
+    BatchRuntimeContext context = (BatchRuntimeContext) Proxy.newProxyInstance(
+      BatchRuntimeContext.class.getClassLoader(), new Class<?>[] {BatchRuntimeContext.class}, (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "getMetrics":
+            return metrics;
+          case "getOutputSchema":
+            return schema;
+          case "getNamespace":
+            return "default";
+          case "getPipelineName":
+            return "benchmark";
+          case "getStageName":
+            return MixPanelBatchSource.NAME;
+          case "getLogicalStartTime":
+            return 0L;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+      });
+
+    Configuration conf = new Configuration();
+    new MixPanelInputFormatProvider(config, null, schema, MixPanelMetrics.getStageKey(context))
+      .getInputFormatConfiguration().forEach(conf::set);
+    MixPanelInputFormat inputFormat = new MixPanelInputFormat();
+    List<InputSplit> splits = inputFormat.getSplits(new JobContextImpl(conf, new JobID()));
+
+    long gcCount = getGcCount();
+    long gcMillis = getGcMillis();
+    long startNanos = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(readers);
+    try {
+      List<Future<Long>> results = new ArrayList<>();
+      for (InputSplit split : splits) {
+        TaskAttemptContext taskAttemptContext = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        results.add(executor.submit(() -> read(inputFormat, split, taskAttemptContext, config, context)));
+      }
+      long records = 0;
+      for (Future<Long> result : results) {
+        records += result.get();
+      }
+      long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+
+      System.out.printf("Read %d records of %d splits with %d readers in %d ms: %d records/s, %.1f MB/s "
+                          + "uncompressed, %.1f MB/s received.%n",
+                        records, splits.size(), readers, elapsedMillis, records * 1000 / elapsedMillis,
+                        metrics.get("bytes.decompressed") / 1000.0 / elapsedMillis,
+                        metrics.get("bytes.received") / 1000.0 / elapsedMillis);
+      System.out.printf("GC: %d collections, %d ms.%n", getGcCount() - gcCount, getGcMillis() - gcMillis);
+      System.out.println("Source metrics: " + new TreeMap<>(metrics.counts));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static long read(MixPanelInputFormat inputFormat, InputSplit split, TaskAttemptContext taskAttemptContext,
+                           MixPanelBatchSourceConfig config, BatchRuntimeContext context) throws Exception {
+    MixPanelBatchSource source = new MixPanelBatchSource(config);
+    source.initialize(context);
+    CountingEmitter emitter = new CountingEmitter();
+    // values are raw events, or records if they are parsed by the reader
+    try (RecordReader<?, ?> recordReader = inputFormat.createRecordReader(split, taskAttemptContext)) {
+      recordReader.initialize(split, taskAttemptContext);
+      while (recordReader.nextKeyValue()) {
+        source.transform(new KeyValue<>((NullWritable) recordReader.getCurrentKey(), recordReader.getCurrentValue()),
+                         emitter);
+      }
+    } finally {
+      source.destroy();
+    }
+    return emitter.records;
+  }
+
+  private static long getGcCount() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream()
+      .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+      .sum();
+  }
+
+  private static long getGcMillis() {
+    return ManagementFactory.getGarbageCollectorMXBeans().stream()
+      .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+      .sum();
+  }
+
+  /**
+   * Counts emitted records.
+   */
+  private static class CountingEmitter implements Emitter<StructuredRecord> {
+    private long records;
+
+    @Override
+    public void emit(StructuredRecord record) {
+      records++;
+    }
+
+    @Override
+    public void emitAlert(Map<String, String> payload) {
+    }
+
+    @Override
+    public void emitError(InvalidEntry<StructuredRecord> invalidEntry) {
+      throw new IllegalStateException("Unexpected invalid entry: " + invalidEntry.getErrorMsg());
+    }
+  }
+
+  /**
+   * Sums counts published by all source instances.
+   */
+  private static class SummingMetrics implements StageMetrics {
+    private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    long get(String name) {
+      AtomicLong count = counts.get(name);
+      return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public void count(String name, int delta) {
+      counts.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+    }
+
+    @Override
+    public void gauge(String name, long value) {
+    }
+
+    @Override
+    public void pipelineCount(String name, int delta) {
+      count(name, delta);
+    }
+
+    @Override
+    public void pipelineGauge(String name, long value) {
+    }
+  }
+}
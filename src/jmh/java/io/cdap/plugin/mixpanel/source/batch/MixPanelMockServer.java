@@ -0,0 +1,336 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in of MixPanel export and query api, streaming synthetic exports of any size. Events are generated from
+ * a small corpus of templates with event times patched in, so the server spends little CPU of the benchmark JVM.
+ * Latency before response, bandwidth, size of written chunks, rate of throttled requests and gzip compression are
+ * configurable. Exports honour dates and time window of the request, events of the window are spread evenly over it.
+ */
+public class MixPanelMockServer implements Closeable {
+  private static final Gson GSON = new Gson();
+  private static final Pattern TIME_CONDITION = Pattern.compile("properties\\[\"time\"] (>=|<) datetime\\((\\d+)\\)");
+  private static final byte[] TIME_KEY = "\"time\":".getBytes(StandardCharsets.UTF_8);
+  private static final int TIME_DIGITS = 10;
+  private static final int TEMPLATES = 1000;
+
+  private final Settings settings;
+  private final MixPanelEventCorpus corpus;
+  private final byte[][] templates;
+  private final int[] timeOffsets;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  public MixPanelMockServer(Settings settings) throws IOException {
+    this.settings = settings;
+    this.corpus = new MixPanelEventCorpus(TEMPLATES, settings.properties, settings.valueWidth);
+    Text[] events = corpus.getEvents();
+    templates = new byte[events.length][];
+    timeOffsets = new int[events.length];
+    for (int i = 0; i < events.length; i++) {
+      templates[i] = (events[i] + "\n").getBytes(StandardCharsets.UTF_8);
+      timeOffsets[i] = indexOf(templates[i], TIME_KEY) + TIME_KEY.length;
+    }
+
+    executor = Executors.newCachedThreadPool();
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/api/2.0/export", this::export);
+    server.createContext("/api/2.0/events/properties/top", this::topProperties);
+    server.createContext("/api/2.0/events", this::eventCounts);
+    server.start();
+  }
+
+  public String getUrl() {
+    return String.format("http://localhost:%d", server.getAddress().getPort());
+  }
+
+  /**
+   * Returns number of bytes of events exported for given number of days.
+   */
+  public long getExportSize(int days) {
+    long templatesSize = 0;
+    for (byte[] template : templates) {
+      templatesSize += template.length;
+    }
+    return templatesSize * days * settings.eventsPerDay / templates.length;
+  }
+
+  private void export(HttpExchange exchange) throws IOException {
+    try {
+      Map<String, String> params = readParams(exchange);
+      if (!sleep(settings.latencyMillis)) {
+        return;
+      }
+      if (ThreadLocalRandom.current().nextDouble() < settings.throttleRate) {
+        exchange.sendResponseHeaders(429, -1);
+        return;
+      }
+
+      long start = LocalDate.parse(params.get("from_date")).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+      long end = LocalDate.parse(params.get("to_date")).plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+      String where = params.get("where");
+      if (where != null) {
+        Matcher matcher = TIME_CONDITION.matcher(where);
+        while (matcher.find()) {
+          long time = Long.parseLong(matcher.group(2));
+          if (matcher.group(1).equals(">=")) {
+            start = Math.max(start, time);
+          } else {
+            end = Math.min(end, time);
+          }
+        }
+      }
+
+      String acceptEncoding = exchange.getRequestHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING);
+      boolean gzip = settings.gzip && acceptEncoding != null && acceptEncoding.contains("gzip");
+      if (gzip) {
+        exchange.getResponseHeaders().set(HttpHeaders.CONTENT_ENCODING, "gzip");
+      }
+      exchange.sendResponseHeaders(200, 0);
+      OutputStream outputStream = new ThrottledOutputStream(exchange.getResponseBody());
+      if (gzip) {
+        outputStream = new GZIPOutputStream(outputStream, settings.chunkSize) {
+          {
+            def.setLevel(Deflater.BEST_SPEED);
+          }
+        };
+      }
+      long events = Math.max(0, (end - start) * settings.eventsPerDay / TimeUnit.DAYS.toSeconds(1));
+      if (params.containsKey("limit")) {
+        events = Math.min(events, Long.parseLong(params.get("limit")));
+      }
+      try (OutputStream eventsStream = outputStream) {
+        writeEvents(eventsStream, start, end, events);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * Writes given number of events spread evenly over time window.
+   */
+  private void writeEvents(OutputStream outputStream, long start, long end, long events) throws IOException {
+    int chunkSize = settings.chunkSize;
+    for (byte[] template : templates) {
+      chunkSize = Math.max(chunkSize, template.length);
+    }
+    byte[] chunk = new byte[chunkSize];
+    int length = 0;
+    for (long i = 0; i < events; i++) {
+      int template = (int) (i % templates.length);
+      byte[] event = templates[template];
+      if (length + event.length > chunk.length) {
+        outputStream.write(chunk, 0, length);
+        length = 0;
+      }
+      System.arraycopy(event, 0, chunk, length, event.length);
+      long time = start + i * (end - start) / events;
+      for (int digit = TIME_DIGITS - 1; digit >= 0; digit--, time /= 10) {
+        chunk[length + timeOffsets[template] + digit] = (byte) ('0' + time % 10);
+      }
+      length += event.length;
+    }
+    outputStream.write(chunk, 0, length);
+  }
+
+  private void topProperties(HttpExchange exchange) throws IOException {
+    try {
+      readParams(exchange);
+      Map<String, Map<String, Long>> properties = new HashMap<>();
+      for (String propertyName : corpus.getPropertyNames()) {
+        properties.put(propertyName, Collections.singletonMap("count", settings.eventsPerDay));
+      }
+      writeJson(exchange, properties);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void eventCounts(HttpExchange exchange) throws IOException {
+    try {
+      Map<String, String> params = readParams(exchange);
+      String[] events = GSON.fromJson(params.get("event"), String[].class);
+      LocalDate toDate = LocalDate.parse(params.get("to_date"));
+      Map<String, Map<String, Long>> values = new HashMap<>();
+      for (String event : events) {
+        Map<String, Long> counts = new HashMap<>();
+        for (LocalDate date = LocalDate.parse(params.get("from_date")); !date.isAfter(toDate);
+             date = date.plusDays(1)) {
+          counts.put(date.toString(), settings.eventsPerDay / events.length);
+        }
+        values.put(event, counts);
+      }
+      writeJson(exchange, Collections.singletonMap(
+        "data", Collections.singletonMap("values", values)));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+    String body = IOUtils.toString(exchange.getRequestBody(), Charsets.UTF_8);
+    List<NameValuePair> pairs = URLEncodedUtils.parse(body, StandardCharsets.UTF_8);
+    Map<String, String> params = new HashMap<>();
+    for (NameValuePair pair : pairs) {
+      params.put(pair.getName(), pair.getValue());
+    }
+    return params;
+  }
+
+  private static void writeJson(HttpExchange exchange, Object value) throws IOException {
+    byte[] body = GSON.toJson(value).getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream outputStream = exchange.getResponseBody()) {
+      outputStream.write(body);
+    }
+  }
+
+  private static boolean sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static int indexOf(byte[] bytes, byte[] key) {
+    for (int i = 0; i <= bytes.length - key.length; i++) {
+      int j = 0;
+      while (j < key.length && bytes[i + j] == key[j]) {
+        j++;
+      }
+      if (j == key.length) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Event has no time property.");
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Limits rate of written bytes to configured bandwidth, every write is flushed as a separate chunk.
+   */
+  private class ThrottledOutputStream extends OutputStream {
+    private final OutputStream outputStream;
+    private final long startNanos = System.nanoTime();
+    private long bytes;
+
+    private ThrottledOutputStream(OutputStream outputStream) {
+      this.outputStream = outputStream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      outputStream.write(buffer, offset, length);
+      outputStream.flush();
+      bytes += length;
+      if (settings.bandwidthBytesPerSecond > 0) {
+        long dueNanos = bytes * TimeUnit.SECONDS.toNanos(1) / settings.bandwidthBytesPerSecond;
+        long aheadNanos = dueNanos - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0 && !sleep(TimeUnit.NANOSECONDS.toMillis(aheadNanos))) {
+          throw new IOException("Interrupted while throttling export.");
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      outputStream.close();
+    }
+  }
+
+  /**
+   * Shape of served exports and conditions of the simulated network.
+   */
+  public static class Settings {
+    private final long eventsPerDay;
+    private final int properties;
+    private final int valueWidth;
+    private final long latencyMillis;
+    private final long bandwidthBytesPerSecond;
+    private final int chunkSize;
+    private final double throttleRate;
+    private final boolean gzip;
+
+    /**
+     * @param eventsPerDay number of events exported per day
+     * @param properties number of custom properties of every event
+     * @param valueWidth length of string property values
+     * @param latencyMillis delay of every response
+     * @param bandwidthBytesPerSecond bandwidth of every export response after compression, 0 for unlimited
+     * @param chunkSize size of chunks export responses are written in
+     * @param throttleRate fraction of export requests rejected with code 429
+     * @param gzip whether exports are compressed if client accepts gzip
+     */
+    public Settings(long eventsPerDay, int properties, int valueWidth, long latencyMillis,
+                    long bandwidthBytesPerSecond, int chunkSize, double throttleRate, boolean gzip) {
+      this.eventsPerDay = eventsPerDay;
+      this.properties = properties;
+      this.valueWidth = valueWidth;
+      this.latencyMillis = latencyMillis;
+      this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+      this.chunkSize = chunkSize;
+      this.throttleRate = throttleRate;
+      this.gzip = gzip;
+    }
+  }
+}
@@ -18,10 +18,17 @@ package io.cdap.plugin.mixpanel.source.batch;
 
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.Charsets;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.hadoop.io.Text;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
@@ -31,43 +38,115 @@ import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.annotation.Nullable;
 
 /**
- * MixPanel api wrapper.
+ * MixPanel api wrapper. Requests are sent through a client shared by the JVM, see {@link MixPanelHttpClientPool},
+ * so instances are cheap and can be used by several threads concurrently. Instance keeps the shared client open until
+ * it is closed.
  */
-public class MixPanelApi {
+public class MixPanelApi implements MixPanelVolumeProbe, Closeable {
+  public static final int DEFAULT_DECOMPRESSION_BUFFER_SIZE = 64 * 1024;
+  public static final int DEFAULT_MAX_RETRIES = 5;
+  public static final int DEFAULT_MAX_RETRY_DELAY_SECONDS = 60;
+  // below default task timeout of Hadoop, which kills tasks not reporting progress for 10 minutes
+  public static final int DEFAULT_MAX_RETRY_AFTER_SECONDS = 300;
+  private static final Logger LOG = LoggerFactory.getLogger(MixPanelApi.class);
+  private static final long INITIAL_RETRY_DELAY_MILLIS = 1000;
+  // not defined by HttpStatus of httpcore 4
+  private static final int SC_TOO_MANY_REQUESTS = 429;
   private static final String TOP_FIELDS_URL = "/api/2.0/events/properties/top/";
+  private static final String EVENTS_URL = "/api/2.0/events/";
   private static final Gson gson = new Gson();
 
   private String restApiUrl;
   private String dataApiUrl;
-  private HttpClientContext httpClientContext;
+  private AuthCache authCache;
+  private CredentialsProvider credentialsProvider;
+  private MixPanelHttpClientPool.Settings clientSettings;
+  private CloseableHttpClient httpClient;
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private int decompressionBufferSize = DEFAULT_DECOMPRESSION_BUFFER_SIZE;
+  private int prefetchBufferSize;
+  private int maxRetries = DEFAULT_MAX_RETRIES;
+  private long maxRetryDelayMillis = TimeUnit.SECONDS.toMillis(DEFAULT_MAX_RETRY_DELAY_SECONDS);
+  private long maxRetryAfterMillis = TimeUnit.SECONDS.toMillis(DEFAULT_MAX_RETRY_AFTER_SECONDS);
+  private MixPanelRateLimiter rateLimiter;
+  private MixPanelMetrics metrics = new MixPanelMetrics();
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger retries = new AtomicInteger();
+  private final AtomicInteger throttledRequests = new AtomicInteger();
 
   public MixPanelApi(String token, String restApiUrl, String dataApiUrl) {
+    this(token, restApiUrl, dataApiUrl, MixPanelHttpClientPool.Settings.getDefault());
+  }
+
+  public MixPanelApi(MixPanelBatchSourceConfig config) {
+    this(config.getApiSecret(), config.getMixPanelRestApiUrl(), config.getMixPanelDataUrl(),
+         MixPanelHttpClientPool.Settings.fromConfig(config));
+    decompressionBufferSize = config.getDecompressionBufferSize();
+    if (config.prefetch()) {
+      prefetchBufferSize = config.getPrefetchBufferSize();
+    }
+    maxRetries = config.getMaxRetries();
+    maxRetryDelayMillis = TimeUnit.SECONDS.toMillis(config.getMaxRetryDelaySeconds());
+    maxRetryAfterMillis = TimeUnit.SECONDS.toMillis(config.getMaxRetryAfterSeconds());
+    if (config.getMaxRequestsPerHour() > 0) {
+      rateLimiter = MixPanelRateLimiter.getInstance(DigestUtils.sha256Hex(Objects.toString(config.getApiSecret(), "")),
+                                                    config.getMaxRequestsPerHour());
+    }
+  }
+
+  /**
+   * @param metrics metrics of the stage requests are recorded to
+   */
+  public MixPanelApi(MixPanelBatchSourceConfig config, MixPanelMetrics metrics) {
+    this(config);
+    this.metrics = metrics;
+  }
+
+  public MixPanelApi(String token, String restApiUrl, String dataApiUrl, MixPanelHttpClientPool.Settings settings) {
     this.restApiUrl = restApiUrl.replaceAll("\\/$", "");
     this.dataApiUrl = dataApiUrl.replaceAll("\\/$", "");
 
-    AuthCache authCache = new BasicAuthCache();
-    CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+    authCache = new BasicAuthCache();
+    credentialsProvider = new BasicCredentialsProvider();
 
     Stream.of(restApiUrl, dataApiUrl)
       .filter(Objects::nonNull)
@@ -83,33 +162,56 @@ public class MixPanelApi {
                }
       );
 
-    httpClientContext = HttpClientContext.create();
+    clientSettings = settings;
+    httpClient = MixPanelHttpClientPool.retain(settings);
+  }
+
+  /**
+   * Releases the shared client, which is closed once no other api instance or stage uses it.
+   */
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      MixPanelHttpClientPool.release(clientSettings);
+    }
+  }
+
+  /**
+   * Creates context of a single request, contexts are not thread safe and can not be shared between requests.
+   */
+  private HttpClientContext createContext() {
+    HttpClientContext httpClientContext = HttpClientContext.create();
     httpClientContext.setCredentialsProvider(credentialsProvider);
     httpClientContext.setAuthCache(authCache);
+    return httpClientContext;
   }
 
+  /**
+   * Requests export of raw events. Compressed response is negotiated and decompressed while events are read. If
+   * prefetch is enabled, response is received in background while events are processed.
+   */
   public RawEventsIterator getRawEvents(List<NameValuePair> params) {
+    CloseableHttpResponse response = null;
     try {
-      CloseableHttpClient httpClient = HttpClients.createDefault();
       HttpPost request = new HttpPost(this.dataApiUrl);
+      request.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
       request.setEntity(new UrlEncodedFormEntity(params));
-      CloseableHttpResponse response = httpClient.execute(request, httpClientContext);
-      checkResponseStatus(response, "Failed to fetch raw events ");
-      return new RawEventsIterator(httpClient, response);
+      response = execute(request, "Failed to fetch raw events ");
+      return new RawEventsIterator(response, decompressionBufferSize, prefetchBufferSize, metrics);
     } catch (Exception e) {
+      IOUtils.closeQuietly(response);
       throw new RuntimeException(e.getMessage());
     }
   }
 
   public Collection<String> getEventTopFields(String eventName) {
-    try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+    try {
       HttpPost request = new HttpPost(restApiUrl + TOP_FIELDS_URL);
       request.setEntity(
         new UrlEncodedFormEntity(Collections.singletonList(new BasicNameValuePair("event", eventName))));
 
-      try (CloseableHttpResponse response = httpClient.execute(request, httpClientContext)) {
-        checkResponseStatus(response, String.format("Failed to fetch fields event: '%s', ", eventName));
-
+      String errorMessage = String.format("Failed to fetch fields event: '%s', ", eventName);
+      try (CloseableHttpResponse response = execute(request, errorMessage)) {
         String responseContent = IOUtils.toString(response.getEntity().getContent());
         Map<String, Object> result = gson.fromJson(responseContent,
                                                    new TypeToken<Map<String, Object>>() {
@@ -121,37 +223,292 @@ public class MixPanelApi {
     }
   }
 
+  @Override
+  public Map<String, Map<LocalDate, Long>> getDailyEventCounts(List<String> events, LocalDate fromDate,
+                                                               LocalDate toDate) {
+    try {
+      HttpPost request = new HttpPost(restApiUrl + EVENTS_URL);
+      request.setEntity(new UrlEncodedFormEntity(Arrays.asList(
+        new BasicNameValuePair("event", gson.toJson(events)),
+        new BasicNameValuePair("type", "general"),
+        new BasicNameValuePair("unit", "day"),
+        new BasicNameValuePair("from_date", fromDate.toString()),
+        new BasicNameValuePair("to_date", toDate.toString()))));
+
+      String errorMessage = String.format("Failed to fetch counts for events: '%s', ", events);
+      try (CloseableHttpResponse response = execute(request, errorMessage)) {
+        String responseContent = IOUtils.toString(response.getEntity().getContent(), Charsets.UTF_8);
+        EventsResponse result = gson.fromJson(responseContent, EventsResponse.class);
+        Map<String, Map<LocalDate, Long>> counts = new HashMap<>();
+        if (result.data != null && result.data.values != null) {
+          result.data.values.forEach((eventName, dailyCounts) -> {
+            Map<LocalDate, Long> eventCounts = new HashMap<>();
+            dailyCounts.forEach((date, count) -> eventCounts.put(LocalDate.parse(date), count));
+            counts.put(eventName, eventCounts);
+          });
+        }
+        return counts;
+      }
+    } catch (Exception e) {
+      throw new RuntimeException(e.getMessage());
+    }
+  }
+
+  /**
+   * Returns number of requests sent by this instance, including retries.
+   */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  public int getRetries() {
+    return retries.get();
+  }
+
+  /**
+   * Returns number of requests rejected by MixPanel because of exceeded rate limit.
+   */
+  public int getThrottledRequests() {
+    return throttledRequests.get();
+  }
+
+  /**
+   * Executes request within rate limit. Connection failures, throttled requests and transient server errors are
+   * retried with jittered exponential backoff, delay requested by server in Retry-After header is respected.
+   *
+   * @return response with successful status
+   */
+  private CloseableHttpResponse execute(HttpPost request, String errorMessage) throws IOException {
+    try {
+      int attempt = 0;
+      while (true) {
+        if (rateLimiter != null) {
+          rateLimiter.acquire();
+        }
+        request.reset();
+        CloseableHttpResponse response;
+        requests.incrementAndGet();
+        metrics.requests.increment();
+        long startNanos = System.nanoTime();
+        try {
+          response = httpClient.execute(request, createContext());
+        } catch (IOException e) {
+          if (attempt >= maxRetries) {
+            throw e;
+          }
+          countRetry();
+          long delayMillis = getRetryDelayMillis(attempt++, null);
+          LOG.warn("Request to '{}' failed, retrying in {} ms: {}", request.getURI(), delayMillis, e.getMessage());
+          Thread.sleep(delayMillis);
+          continue;
+        }
+
+        metrics.requestLatency.recordNanos(System.nanoTime() - startNanos);
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == SC_TOO_MANY_REQUESTS) {
+          throttledRequests.incrementAndGet();
+          metrics.requestsThrottled.increment();
+        }
+        if (attempt < maxRetries && isRetryable(statusCode)) {
+          countRetry();
+          Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+          EntityUtils.consumeQuietly(response.getEntity());
+          response.close();
+          long delayMillis = getRetryDelayMillis(attempt++, retryAfter);
+          LOG.warn("Request to '{}' failed with code {}, retrying in {} ms.", request.getURI(), statusCode,
+                   delayMillis);
+          Thread.sleep(delayMillis);
+          continue;
+        }
+
+        try {
+          checkResponseStatus(response, errorMessage);
+        } catch (IOException e) {
+          response.close();
+          throw e;
+        }
+        return response;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted while requesting '%s'", request.getURI()));
+    }
+  }
+
+  private void countRetry() {
+    retries.incrementAndGet();
+    metrics.requestRetries.increment();
+  }
+
+  private static boolean isRetryable(int statusCode) {
+    return statusCode == SC_TOO_MANY_REQUESTS || statusCode == HttpStatus.SC_INTERNAL_SERVER_ERROR
+      || statusCode == HttpStatus.SC_BAD_GATEWAY || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE
+      || statusCode == HttpStatus.SC_GATEWAY_TIMEOUT;
+  }
+
+  /**
+   * Returns delay requested by server, or random delay up to exponentially growing limit ("full jitter"), so
+   * concurrent readers throttled at the same time do not retry at the same time.
+   *
+   * @throws IOException if server requested longer delay than the configured maximum
+   */
+  long getRetryDelayMillis(int attempt, @Nullable Header retryAfter) throws IOException {
+    long delayMillis = (long) (ThreadLocalRandom.current().nextDouble()
+      * Math.min(maxRetryDelayMillis, INITIAL_RETRY_DELAY_MILLIS << Math.min(attempt, 30)));
+    if (retryAfter == null) {
+      return delayMillis;
+    }
+    String value = retryAfter.getValue().trim();
+    long requestedMillis;
+    if (value.matches("\\d+")) {
+      // numbers too long to be parsed are far above any maximum
+      requestedMillis = value.length() > 15 ? Long.MAX_VALUE : TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+    } else {
+      Date date = DateUtils.parseDate(value);
+      if (date == null) {
+        return delayMillis;
+      }
+      requestedMillis = Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+    if (requestedMillis > maxRetryAfterMillis) {
+      throw new IOException(String.format("MixPanel requested retry after '%s', which exceeds max retry after delay "
+                                            + "of %d seconds.", value,
+                                          TimeUnit.MILLISECONDS.toSeconds(maxRetryAfterMillis)));
+    }
+    return Math.min(maxRetryAfterMillis, requestedMillis + delayMillis / 10);
+  }
+
+  /**
+   * Response of events segmentation endpoint.
+   */
+  private static class EventsResponse {
+    private EventsData data;
+  }
+
   /**
-   * Iterates over raw events.
+   * Series of event counts per event name and date.
+   */
+  private static class EventsData {
+    private Map<String, Map<String, Long>> values;
+  }
+
+  /**
+   * Iterates over raw events. Closing the iterator after all events were read releases connection back to the pool,
+   * closing it earlier aborts the connection instead of reading the rest of the export.
    */
   public static class RawEventsIterator implements Iterator<String>, Closeable {
-    private Scanner dataScanner;
-    private CloseableHttpClient httpClient;
+    private MixPanelLineReader lineReader;
     private CloseableHttpResponse response;
+    private MixPanelPrefetchInputStream prefetchStream;
+    private CountingInputStream compressedStream;
+    private CountingInputStream uncompressedStream;
+    private boolean lineAvailable;
+    private boolean endOfData;
 
-    private RawEventsIterator(CloseableHttpClient httpClient, CloseableHttpResponse response) throws IOException {
-      Objects.requireNonNull(httpClient);
+    /**
+     * @param prefetchBufferSize maximum number of bytes received ahead of processing, 0 to receive on demand
+     */
+    private RawEventsIterator(CloseableHttpResponse response, int decompressionBufferSize, int prefetchBufferSize,
+                              MixPanelMetrics metrics) throws IOException {
       Objects.requireNonNull(response);
-      this.httpClient = httpClient;
       this.response = response;
-      dataScanner = new Scanner(response.getEntity().getContent());
+      HttpEntity entity = response.getEntity();
+      InputStream content = entity.getContent();
+      if (prefetchBufferSize > 0) {
+        prefetchStream = new MixPanelPrefetchInputStream(content, prefetchBufferSize, metrics);
+        content = prefetchStream;
+      }
+      compressedStream = new CountingInputStream(content);
+      String contentEncoding = entity.getContentEncoding() == null ? null : entity.getContentEncoding().getValue();
+      InputStream inputStream;
+      if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+        inputStream = new GZIPInputStream(compressedStream, decompressionBufferSize);
+      } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+        inputStream = new InflaterInputStream(compressedStream, new Inflater(), decompressionBufferSize);
+      } else {
+        inputStream = compressedStream;
+      }
+      uncompressedStream = new CountingInputStream(inputStream);
+      lineReader = new MixPanelLineReader(uncompressedStream);
+    }
+
+    /**
+     * Returns number of bytes MixPanel is going to send, or -1 if response length is not known in advance.
+     */
+    public long getContentLength() {
+      return response.getEntity().getContentLength();
+    }
+
+    /**
+     * Returns number of bytes received from MixPanel so far.
+     */
+    public long getCompressedBytes() {
+      return compressedStream.getByteCount();
+    }
+
+    /**
+     * Returns number of bytes of events after decompression read so far, equal to number of received bytes if
+     * response was not compressed.
+     */
+    public long getUncompressedBytes() {
+      return uncompressedStream.getByteCount();
     }
 
     @Override
     public boolean hasNext() {
-      return dataScanner.hasNextLine();
+      if (!lineAvailable && !endOfData) {
+        try {
+          lineAvailable = lineReader.nextLine();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        endOfData = !lineAvailable;
+      }
+      return lineAvailable;
     }
 
     @Override
     public String next() {
-      return dataScanner.nextLine();
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lineAvailable = false;
+      return lineReader.getLine();
+    }
+
+    /**
+     * Copies bytes of the next event into given text, without decoding them.
+     *
+     * @return false if there are no more events
+     */
+    public boolean next(Text value) {
+      if (!hasNext()) {
+        return false;
+      }
+      lineAvailable = false;
+      value.set(lineReader.getBuffer(), lineReader.getLineStart(), lineReader.getLineLength());
+      return true;
     }
 
     @Override
     public void close() throws IOException {
-      dataScanner.close();
+      if (endOfData) {
+        lineReader.close();
+      } else if (prefetchStream != null) {
+        prefetchStream.close();
+      }
+      response.close();
+    }
+
+    /**
+     * Aborts connection from another thread, so the thread reading events fails instead of waiting for the rest of
+     * the export.
+     */
+    public void abort() throws IOException {
+      if (prefetchStream != null) {
+        prefetchStream.close();
+      }
       response.close();
-      httpClient.close();
     }
   }
 
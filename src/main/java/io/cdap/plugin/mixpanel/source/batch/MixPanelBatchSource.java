@@ -26,13 +26,21 @@ import io.cdap.cdap.api.dataset.lib.KeyValue;
 import io.cdap.cdap.etl.api.Emitter;
 import io.cdap.cdap.etl.api.FailureCollector;
 import io.cdap.cdap.etl.api.PipelineConfigurer;
+import io.cdap.cdap.etl.api.StageMetrics;
+import io.cdap.cdap.etl.api.batch.BatchRuntimeContext;
 import io.cdap.cdap.etl.api.batch.BatchSource;
 import io.cdap.cdap.etl.api.batch.BatchSourceContext;
 import io.cdap.plugin.common.LineageRecorder;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -41,10 +49,24 @@ import java.util.stream.Collectors;
 @Plugin(type = BatchSource.PLUGIN_TYPE)
 @Name(MixPanelBatchSource.NAME)
 @Description("Reads events from MixPanel.")
-public class MixPanelBatchSource extends BatchSource<NullWritable, Text, StructuredRecord> {
+public class MixPanelBatchSource extends BatchSource<NullWritable, Object, StructuredRecord> {
   public static final String NAME = "MixPanel";
+  private static final long METRICS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  // records transformed between checks whether metrics should be published
+  private static final int METRICS_CHECK_INTERVAL_RECORDS = 1024;
 
   private final MixPanelBatchSourceConfig config;
+  private MixPanelEventParser eventParser;
+  private MixPanelWatermark watermark;
+  private StageMetrics metrics;
+  // metrics shared with readers of the stage running in this JVM
+  private MixPanelMetrics sourceMetrics;
+  private String stageKey;
+  // retains of the shared http client held by this stage for the time of run or task
+  private int clientRetains;
+  private long records;
+  private long publishedRecords;
+  private long publishedNanos;
 
   public MixPanelBatchSource(MixPanelBatchSourceConfig config) {
     this.config = config;
@@ -53,12 +75,20 @@ public class MixPanelBatchSource extends BatchSource<NullWritable, Text, Structu
 
   @Override
   public void configurePipeline(PipelineConfigurer pipelineConfigurer) {
-    validateConfiguration(pipelineConfigurer.getStageConfigurer().getFailureCollector());
-    pipelineConfigurer.getStageConfigurer().setOutputSchema(config.getSchema());
+    MixPanelHttpClientPool.Settings clientSettings = MixPanelHttpClientPool.Settings.fromConfig(config);
+    MixPanelHttpClientPool.retain(clientSettings);
+    try {
+      validateConfiguration(pipelineConfigurer.getStageConfigurer().getFailureCollector());
+      pipelineConfigurer.getStageConfigurer().setOutputSchema(config.getSchema());
+    } finally {
+      MixPanelHttpClientPool.release(clientSettings);
+    }
   }
 
   @Override
-  public void prepareRun(BatchSourceContext batchSourceContext) {
+  public void prepareRun(BatchSourceContext batchSourceContext) throws IOException {
+    // keeps client open between validation and splits planning, it is released when run finishes
+    retainClient();
     validateConfiguration(batchSourceContext.getFailureCollector());
     LineageRecorder lineageRecorder = new LineageRecorder(batchSourceContext, config.referenceName);
     lineageRecorder.createExternalDataset(config.getSchema());
@@ -67,12 +97,122 @@ public class MixPanelBatchSource extends BatchSource<NullWritable, Text, Structu
                                  .map(Schema.Field::getName)
                                  .collect(Collectors.toList()));
 
-    batchSourceContext.setInput(Input.of(config.referenceName, new MixPanelInputFormatProvider(config)));
+    // records parsed by readers must match schema of the stage
+    Schema outputSchema = batchSourceContext.getOutputSchema();
+    // readers record metrics for instances of this stage to publish
+    String runStageKey = MixPanelMetrics.getStageKey(batchSourceContext);
+    MixPanelInputFormatProvider inputFormatProvider;
+    if (config.incremental()) {
+      watermark = MixPanelWatermark.getWindow(config, batchSourceContext.getLogicalStartTime() / 1000);
+      ZoneId zone = config.getTimeZone();
+      MixPanelBatchSourceConfig runConfig = config.withDates(watermark.getFromDate(zone), watermark.getToDate(zone));
+      inputFormatProvider = new MixPanelInputFormatProvider(runConfig, watermark, outputSchema, runStageKey);
+    } else {
+      inputFormatProvider = new MixPanelInputFormatProvider(config, null, outputSchema, runStageKey);
+    }
+    batchSourceContext.setInput(Input.of(config.referenceName, inputFormatProvider));
   }
 
   @Override
-  public void transform(KeyValue<NullWritable, Text> input, Emitter<StructuredRecord> emitter) {
-    emitter.emit(MixPanelSchemaHelper.getRecordForEvent(config, input.getValue().toString()));
+  public void onRunFinish(boolean succeeded, BatchSourceContext context) {
+    super.onRunFinish(succeeded, context);
+    releaseClient();
+    if (succeeded && watermark != null) {
+      try {
+        watermark.write(config.getWatermarkPath());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  @Override
+  public void initialize(BatchRuntimeContext context) throws Exception {
+    super.initialize(context);
+    // keeps client open between readers of the task, each of them releases only its own api
+    retainClient();
+    metrics = context.getMetrics();
+    stageKey = MixPanelMetrics.getStageKey(context);
+    sourceMetrics = MixPanelMetrics.retain(stageKey);
+    publishedNanos = System.nanoTime();
+    if (config.schemaByEvents()) {
+      // schema resolved during deployment, generate it only if it was not known then, e.g. because of macros
+      Schema schema;
+      List<String> propertyNames;
+      if (context.getOutputSchema() == null) {
+        schema = config.getSchema();
+        propertyNames = config.getPropertyNames();
+      } else {
+        schema = context.getOutputSchema();
+        // discovered names are mapped upfront only if cached, other names are mapped when seen
+        MixPanelSchemaHelper.DiscoveredSchema cachedSchema = MixPanelSchemaCache.getCachedSchema(config);
+        propertyNames = cachedSchema == null ? Collections.emptyList() : cachedSchema.getPropertyNames();
+      }
+      eventParser = new MixPanelEventParser(MixPanelFieldMapping.of(config, schema, propertyNames), sourceMetrics);
+    }
+  }
+
+  /**
+   * Parses raw event into record, or emits record already parsed by {@link MixPanelParsingRecordReader}.
+   */
+  @Override
+  public void transform(KeyValue<NullWritable, Object> input, Emitter<StructuredRecord> emitter) throws Exception {
+    long startNanos = System.nanoTime();
+    if (input.getValue() instanceof StructuredRecord) {
+      emitter.emit((StructuredRecord) input.getValue());
+    } else {
+      Text event = (Text) input.getValue();
+      StructuredRecord record = eventParser == null
+        ? MixPanelSchemaHelper.getRawEventRecord(event) : eventParser.parse(event);
+      sourceMetrics.parseNanos.add(System.nanoTime() - startNanos);
+      emitter.emit(record);
+    }
+    if (++records % METRICS_CHECK_INTERVAL_RECORDS == 0 && startNanos - publishedNanos >= METRICS_INTERVAL_NANOS) {
+      publishMetrics(startNanos);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    releaseClient();
+    if (metrics != null) {
+      publishMetrics(System.nanoTime());
+    }
+    if (stageKey != null) {
+      MixPanelMetrics.release(stageKey);
+      stageKey = null;
+    }
+    super.destroy();
+  }
+
+  private void retainClient() {
+    MixPanelHttpClientPool.retain(MixPanelHttpClientPool.Settings.fromConfig(config));
+    clientRetains++;
+  }
+
+  /**
+   * Releases client retained by this stage, if any, so that it is released exactly once per retain.
+   */
+  private void releaseClient() {
+    if (clientRetains > 0) {
+      clientRetains--;
+      MixPanelHttpClientPool.release(MixPanelHttpClientPool.Settings.fromConfig(config));
+    }
+  }
+
+  /**
+   * Publishes metrics recorded by readers, api clients and parsers of this stage in this JVM, and throughput of this
+   * stage instance.
+   */
+  private void publishMetrics(long nowNanos) {
+    sourceMetrics.publish(metrics);
+    long elapsedNanos = nowNanos - publishedNanos;
+    if (elapsedNanos > 0) {
+      metrics.gauge(MixPanelMetrics.RECORDS_PER_SECOND,
+                    (records - publishedRecords) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+    }
+    publishedRecords = records;
+    publishedNanos = nowNanos;
   }
 
   private void validateConfiguration(FailureCollector failureCollector) {
@@ -16,6 +16,8 @@
 
 package io.cdap.plugin.mixpanel.source.batch;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Macro;
 import io.cdap.cdap.api.annotation.Name;
@@ -26,10 +28,13 @@ import io.cdap.plugin.common.ReferencePluginConfig;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.time.DateTimeException;
+import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
 /**
@@ -44,10 +49,51 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
   public static final String PROPERTY_URL = "mixPanelDataUrl";
   public static final String PROPERTY_REST_URL = "mixPanelRestApiUrl";
   public static final String PROPERTY_SCHEMA_BY_EVENTS = "schemaByEvents";
+  public static final String PROPERTY_EVENT_PROPERTIES = "eventProperties";
+  public static final String PROPERTY_DAYS_PER_SPLIT = "daysPerSplit";
+  public static final String PROPERTY_MAX_SPLITS = "maxSplits";
+  public static final String PROPERTY_SPLIT_WINDOW_MINUTES = "splitWindowMinutes";
+  public static final String PROPERTY_TIME_ZONE = "timeZone";
+  public static final String PROPERTY_EVENTS_PER_SPLIT = "eventsPerSplit";
+  public static final String PROPERTY_ADAPTIVE_SPLITS = "adaptiveSplits";
+  public static final String PROPERTY_TARGET_EVENTS_PER_SPLIT = "targetEventsPerSplit";
+  public static final String PROPERTY_INFER_TYPES = "inferTypes";
+  public static final String PROPERTY_SCHEMA_SAMPLE_SIZE = "schemaSampleSize";
+  public static final String PROPERTY_SCHEMA_DISCOVERY_THREADS = "schemaDiscoveryThreads";
+  public static final String PROPERTY_REQUEST_TIMEOUT_SECONDS = "requestTimeoutSeconds";
+  public static final String PROPERTY_SCHEMA_CACHE_TTL_MINUTES = "schemaCacheTtlMinutes";
+  public static final String PROPERTY_SCHEMA_CACHE_PATH = "schemaCachePath";
+  public static final String PROPERTY_MAX_CONNECTIONS = "maxConnections";
+  public static final String PROPERTY_CONNECT_TIMEOUT_SECONDS = "connectTimeoutSeconds";
+  public static final String PROPERTY_KEEP_ALIVE_SECONDS = "keepAliveSeconds";
+  public static final String PROPERTY_SOCKET_BUFFER_SIZE = "socketBufferSize";
+  public static final String PROPERTY_DECOMPRESSION_BUFFER_SIZE = "decompressionBufferSize";
+  public static final String PROPERTY_MAX_REQUESTS_PER_HOUR = "maxRequestsPerHour";
+  public static final String PROPERTY_MAX_RETRIES = "maxRetries";
+  public static final String PROPERTY_MAX_RETRY_DELAY_SECONDS = "maxRetryDelaySeconds";
+  public static final String PROPERTY_MAX_RETRY_AFTER_SECONDS = "maxRetryAfterSeconds";
+  public static final String PROPERTY_INCREMENTAL = "incremental";
+  public static final String PROPERTY_WATERMARK_PATH = "watermarkPath";
+  public static final String PROPERTY_WATERMARK_DELAY_MINUTES = "watermarkDelayMinutes";
+  public static final String PROPERTY_PREFETCH = "prefetch";
+  public static final String PROPERTY_PREFETCH_BUFFER_SIZE = "prefetchBufferSize";
+  public static final String PROPERTY_STREAMS_PER_SPLIT = "streamsPerSplit";
+  public static final String PROPERTY_STREAM_WINDOW_MINUTES = "streamWindowMinutes";
+  public static final String PROPERTY_ORDERED_STREAMS = "orderedStreams";
+  public static final String PROPERTY_PARSER_THREADS = "parserThreads";
+  public static final String PROPERTY_LOCAL_FILTER = "localFilter";
+  public static final String PROPERTY_SAMPLING_RATE = "samplingRate";
+  public static final String PROPERTY_SAMPLING_KEY = "samplingKey";
 
+  private static final int MINUTES_PER_DAY = 24 * 60;
   private static final Pattern DATE_REGEX = Pattern.compile("^\\d{4}-\\d{2}-\\d{2}$");
   public static final String MIXPANEL_DEFAULT_DATA_URL = "https://data.mixpanel.com/api/2.0/export";
   public static final String MIXPANEL_DEFAULT_REST_API_URL = "https://mixpanel.com";
+  public static final String DEFAULT_TIME_ZONE = "UTC";
+  public static final int DEFAULT_SCHEMA_SAMPLE_SIZE = 1000;
+  public static final int DEFAULT_SCHEMA_DISCOVERY_THREADS = 8;
+  public static final int DEFAULT_WATERMARK_DELAY_MINUTES = 60;
+  private static final Gson GSON = new GsonBuilder().create();
 
   @Name(PROPERTY_API_SECRET)
   @Description("Mixpanel API secret.")
@@ -60,7 +106,8 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
   protected String fromDate;
 
   @Name(PROPERTY_TO_DATE)
-  @Description("End date for reports data.")
+  @Description("End date for reports data. Optional in incremental mode.")
+  @Nullable
   @Macro
   protected String toDate;
 
@@ -93,8 +140,220 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
   @Macro
   protected String schemaByEvents;
 
+  @Name(PROPERTY_EVENT_PROPERTIES)
+  @Description("Comma separated list of event properties the generated schema is limited to.")
+  @Nullable
+  @Macro
+  protected String eventProperties;
+
+  @Name(PROPERTY_DAYS_PER_SPLIT)
+  @Description("Number of days exported by a single split. If not set, whole date range is read by one split.")
+  @Nullable
+  @Macro
+  protected Integer daysPerSplit;
+
+  @Name(PROPERTY_MAX_SPLITS)
+  @Description("Maximum number of splits, and so of concurrent export requests.")
+  @Nullable
+  @Macro
+  protected Integer maxSplits;
+
+  @Name(PROPERTY_SPLIT_WINDOW_MINUTES)
+  @Description("Length of time window in minutes each day is split into. If set, every day is read by several splits.")
+  @Nullable
+  @Macro
+  protected Integer splitWindowMinutes;
+
+  @Name(PROPERTY_TIME_ZONE)
+  @Description("Time zone of MixPanel project, used to align split windows with days.")
+  @Nullable
+  @Macro
+  protected String timeZone;
+
+  @Name(PROPERTY_EVENTS_PER_SPLIT)
+  @Description("Number of event names exported by a single split. If not set, all events are read by every split.")
+  @Nullable
+  @Macro
+  protected Integer eventsPerSplit;
+
+  @Name(PROPERTY_ADAPTIVE_SPLITS)
+  @Description("Plan splits of similar size using number of events per day, fetched before export.")
+  @Nullable
+  @Macro
+  protected String adaptiveSplits;
+
+  @Name(PROPERTY_TARGET_EVENTS_PER_SPLIT)
+  @Description("Estimated number of events exported by a single split when adaptive splits are used.")
+  @Nullable
+  @Macro
+  protected Long targetEventsPerSplit;
+
+  @Name(PROPERTY_INFER_TYPES)
+  @Description("Infer long, double, boolean and timestamp field types from a sample of events.")
+  @Nullable
+  @Macro
+  protected String inferTypes;
+
+  @Name(PROPERTY_SCHEMA_SAMPLE_SIZE)
+  @Description("Number of events exported to infer field types.")
+  @Nullable
+  @Macro
+  protected Integer schemaSampleSize;
+
+  @Name(PROPERTY_SCHEMA_DISCOVERY_THREADS)
+  @Description("Maximum number of concurrent requests sent to MixPanel to discover fields of events.")
+  @Nullable
+  @Macro
+  protected Integer schemaDiscoveryThreads;
+
+  @Name(PROPERTY_REQUEST_TIMEOUT_SECONDS)
+  @Description("Timeout in seconds of waiting for response data or for pooled connection to MixPanel.")
+  @Nullable
+  @Macro
+  protected Integer requestTimeoutSeconds;
+
+  @Name(PROPERTY_SCHEMA_CACHE_TTL_MINUTES)
+  @Description("Minutes for which schema generated by events is cached and reused. Cache is disabled if not set.")
+  @Nullable
+  @Macro
+  protected Integer schemaCacheTtlMinutes;
+
+  @Name(PROPERTY_SCHEMA_CACHE_PATH)
+  @Description("Directory to persist cached schemas in, local or on any Hadoop file system.")
+  @Nullable
+  @Macro
+  protected String schemaCachePath;
+
+  @Name(PROPERTY_MAX_CONNECTIONS)
+  @Description("Maximum number of connections to MixPanel kept by the pool shared within a JVM.")
+  @Nullable
+  @Macro
+  protected Integer maxConnections;
+
+  @Name(PROPERTY_CONNECT_TIMEOUT_SECONDS)
+  @Description("Timeout in seconds of establishing connection to MixPanel.")
+  @Nullable
+  @Macro
+  protected Integer connectTimeoutSeconds;
+
+  @Name(PROPERTY_KEEP_ALIVE_SECONDS)
+  @Description("Maximum time in seconds idle connection to MixPanel is kept alive for reuse.")
+  @Nullable
+  @Macro
+  protected Integer keepAliveSeconds;
+
+  @Name(PROPERTY_SOCKET_BUFFER_SIZE)
+  @Description("Size in bytes of socket buffers of connections to MixPanel.")
+  @Nullable
+  @Macro
+  protected Integer socketBufferSize;
+
+  @Name(PROPERTY_DECOMPRESSION_BUFFER_SIZE)
+  @Description("Size in bytes of buffer used to decompress exported events.")
+  @Nullable
+  @Macro
+  protected Integer decompressionBufferSize;
+
+  @Name(PROPERTY_MAX_REQUESTS_PER_HOUR)
+  @Description("Maximum number of requests per hour sent to MixPanel by all readers running in the same JVM.")
+  @Nullable
+  @Macro
+  protected Integer maxRequestsPerHour;
+
+  @Name(PROPERTY_MAX_RETRIES)
+  @Description("Maximum number of retries of throttled or failed requests.")
+  @Nullable
+  @Macro
+  protected Integer maxRetries;
+
+  @Name(PROPERTY_MAX_RETRY_DELAY_SECONDS)
+  @Description("Maximum delay in seconds between retries, unless longer delay is requested by MixPanel.")
+  @Nullable
+  @Macro
+  protected Integer maxRetryDelaySeconds;
+
+  @Name(PROPERTY_MAX_RETRY_AFTER_SECONDS)
+  @Description("Maximum delay in seconds requested by MixPanel before retry which is waited for. Requests asked to "
+    + "wait longer fail.")
+  @Nullable
+  @Macro
+  protected Integer maxRetryAfterSeconds;
+
+  @Name(PROPERTY_INCREMENTAL)
+  @Description("Export only events ingested since the previous successful run, tracked by a watermark.")
+  @Nullable
+  @Macro
+  protected String incremental;
+
+  @Name(PROPERTY_WATERMARK_PATH)
+  @Description("File to store watermark of incremental mode in, local or on any Hadoop file system.")
+  @Nullable
+  @Macro
+  protected String watermarkPath;
+
+  @Name(PROPERTY_WATERMARK_DELAY_MINUTES)
+  @Description("Minutes by which end of incremental export lags behind the run time, to include late events.")
+  @Nullable
+  @Macro
+  protected Integer watermarkDelayMinutes;
+
+  @Name(PROPERTY_PREFETCH)
+  @Description("Download export stream in background while events are processed.")
+  @Nullable
+  @Macro
+  protected String prefetch;
+
+  @Name(PROPERTY_PREFETCH_BUFFER_SIZE)
+  @Description("Maximum size in bytes of export data downloaded in advance by every reader.")
+  @Nullable
+  @Macro
+  protected Integer prefetchBufferSize;
+
+  @Name(PROPERTY_STREAMS_PER_SPLIT)
+  @Description("Number of export streams every reader downloads concurrently, each for another window of its split.")
+  @Nullable
+  @Macro
+  protected Integer streamsPerSplit;
+
+  @Name(PROPERTY_STREAM_WINDOW_MINUTES)
+  @Description("Minutes of events exported by every stream if split is read by multiple streams.")
+  @Nullable
+  @Macro
+  protected Integer streamWindowMinutes;
+
+  @Name(PROPERTY_ORDERED_STREAMS)
+  @Description("Read events of concurrent streams window by window, keeping the order of export.")
+  @Nullable
+  @Macro
+  protected String orderedStreams;
+
+  @Name(PROPERTY_PARSER_THREADS)
+  @Description("Number of threads every reader parses events on if schema is generated by events.")
+  @Nullable
+  @Macro
+  protected Integer parserThreads;
+
+  @Name(PROPERTY_LOCAL_FILTER)
+  @Description("Comma separated conditions on event properties, or on event name by 'event', which events must "
+    + "match to be read, e.g. '$os=Linux,plan!=free'. Evaluated by the plugin before events are parsed.")
+  @Nullable
+  @Macro
+  protected String localFilter;
+
+  @Name(PROPERTY_SAMPLING_RATE)
+  @Description("Fraction of events to read, sampled deterministically by hash of the sampling key.")
+  @Nullable
+  @Macro
+  protected Double samplingRate;
+
+  @Name(PROPERTY_SAMPLING_KEY)
+  @Description("Property events are sampled by, 'distinct_id' to sample users or '$insert_id' to sample events.")
+  @Nullable
+  @Macro
+  protected String samplingKey;
 
   private transient Schema schema;
+  private transient List<String> propertyNames;
 
   public MixPanelBatchSourceConfig(String referenceName) {
     super(referenceName);
@@ -109,7 +368,42 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
     mixPanelDataUrl = builder.mixPanelDataUrl;
     events = builder.events;
     schemaByEvents = builder.schemaByEvents;
+    eventProperties = builder.eventProperties;
     mixPanelRestApiUrl = builder.mixPanelRestApiUrl;
+    daysPerSplit = builder.daysPerSplit;
+    maxSplits = builder.maxSplits;
+    splitWindowMinutes = builder.splitWindowMinutes;
+    timeZone = builder.timeZone;
+    eventsPerSplit = builder.eventsPerSplit;
+    adaptiveSplits = builder.adaptiveSplits;
+    targetEventsPerSplit = builder.targetEventsPerSplit;
+    inferTypes = builder.inferTypes;
+    schemaSampleSize = builder.schemaSampleSize;
+    schemaDiscoveryThreads = builder.schemaDiscoveryThreads;
+    requestTimeoutSeconds = builder.requestTimeoutSeconds;
+    schemaCacheTtlMinutes = builder.schemaCacheTtlMinutes;
+    schemaCachePath = builder.schemaCachePath;
+    maxConnections = builder.maxConnections;
+    connectTimeoutSeconds = builder.connectTimeoutSeconds;
+    keepAliveSeconds = builder.keepAliveSeconds;
+    socketBufferSize = builder.socketBufferSize;
+    decompressionBufferSize = builder.decompressionBufferSize;
+    maxRequestsPerHour = builder.maxRequestsPerHour;
+    maxRetries = builder.maxRetries;
+    maxRetryDelaySeconds = builder.maxRetryDelaySeconds;
+    maxRetryAfterSeconds = builder.maxRetryAfterSeconds;
+    incremental = builder.incremental;
+    watermarkPath = builder.watermarkPath;
+    watermarkDelayMinutes = builder.watermarkDelayMinutes;
+    prefetch = builder.prefetch;
+    prefetchBufferSize = builder.prefetchBufferSize;
+    streamsPerSplit = builder.streamsPerSplit;
+    streamWindowMinutes = builder.streamWindowMinutes;
+    orderedStreams = builder.orderedStreams;
+    parserThreads = builder.parserThreads;
+    localFilter = builder.localFilter;
+    samplingRate = builder.samplingRate;
+    samplingKey = builder.samplingKey;
   }
 
   public static Builder builder() {
@@ -124,6 +418,7 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
     return fromDate;
   }
 
+  @Nullable
   public String getToDate() {
     return toDate;
   }
@@ -139,6 +434,23 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
     return schemaByEvents.equals("on");
   }
 
+  /**
+   * Returns raw names of properties the generated schema is limited to, empty if all discovered properties are
+   * included.
+   */
+  /**
+   * Returns listed event properties, surrounding whitespace is not part of property names.
+   */
+  public List<String> getEventProperties() {
+    if (eventProperties != null && !eventProperties.isEmpty()) {
+      return Arrays.stream(eventProperties.split(","))
+        .map(String::trim)
+        .filter(name -> !name.isEmpty())
+        .collect(Collectors.toList());
+    }
+    return Collections.emptyList();
+  }
+
   @Nullable
   public String getFilter() {
     return filter;
@@ -164,13 +476,205 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
     return mixPanelRestApiUrl;
   }
 
+  /**
+   * Returns number of days per split, 0 if date range should not be split.
+   */
+  public int getDaysPerSplit() {
+    return daysPerSplit == null ? 0 : daysPerSplit;
+  }
+
+  /**
+   * Returns maximum number of splits, 0 if not limited.
+   */
+  public int getMaxSplits() {
+    return maxSplits == null ? 0 : maxSplits;
+  }
+
+  /**
+   * Returns length of split window in minutes, 0 if days should not be split.
+   */
+  public int getSplitWindowMinutes() {
+    return splitWindowMinutes == null ? 0 : splitWindowMinutes;
+  }
+
+  /**
+   * Returns number of event names per split, 0 if events should not be sharded.
+   */
+  public int getEventsPerSplit() {
+    return eventsPerSplit == null ? 0 : eventsPerSplit;
+  }
+
+  public boolean adaptiveSplits() {
+    return "on".equals(adaptiveSplits);
+  }
+
+  /**
+   * Returns target number of events per adaptive split, 0 if not set.
+   */
+  public long getTargetEventsPerSplit() {
+    return targetEventsPerSplit == null ? 0 : targetEventsPerSplit;
+  }
+
+  public boolean inferTypes() {
+    return "on".equals(inferTypes);
+  }
+
+  public int getSchemaSampleSize() {
+    return schemaSampleSize == null ? DEFAULT_SCHEMA_SAMPLE_SIZE : schemaSampleSize;
+  }
+
+  public int getSchemaDiscoveryThreads() {
+    return schemaDiscoveryThreads == null ? DEFAULT_SCHEMA_DISCOVERY_THREADS : schemaDiscoveryThreads;
+  }
+
+  public int getRequestTimeoutSeconds() {
+    return requestTimeoutSeconds == null
+      ? MixPanelHttpClientPool.Settings.DEFAULT_SOCKET_TIMEOUT_SECONDS : requestTimeoutSeconds;
+  }
+
+  public int getSchemaCacheTtlMinutes() {
+    return schemaCacheTtlMinutes == null ? 0 : schemaCacheTtlMinutes;
+  }
+
+  @Nullable
+  public String getSchemaCachePath() {
+    return schemaCachePath;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections == null ? MixPanelHttpClientPool.Settings.DEFAULT_MAX_CONNECTIONS : maxConnections;
+  }
+
+  public int getConnectTimeoutSeconds() {
+    return connectTimeoutSeconds == null
+      ? MixPanelHttpClientPool.Settings.DEFAULT_CONNECT_TIMEOUT_SECONDS : connectTimeoutSeconds;
+  }
+
+  public int getKeepAliveSeconds() {
+    return keepAliveSeconds == null ? MixPanelHttpClientPool.Settings.DEFAULT_KEEP_ALIVE_SECONDS : keepAliveSeconds;
+  }
+
+  public int getSocketBufferSize() {
+    return socketBufferSize == null ? MixPanelHttpClientPool.Settings.DEFAULT_SOCKET_BUFFER_SIZE : socketBufferSize;
+  }
+
+  public int getDecompressionBufferSize() {
+    return decompressionBufferSize == null ? MixPanelApi.DEFAULT_DECOMPRESSION_BUFFER_SIZE : decompressionBufferSize;
+  }
+
+  public int getMaxRequestsPerHour() {
+    return maxRequestsPerHour == null ? 0 : maxRequestsPerHour;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries == null ? MixPanelApi.DEFAULT_MAX_RETRIES : maxRetries;
+  }
+
+  public int getMaxRetryDelaySeconds() {
+    return maxRetryDelaySeconds == null ? MixPanelApi.DEFAULT_MAX_RETRY_DELAY_SECONDS : maxRetryDelaySeconds;
+  }
+
+  public int getMaxRetryAfterSeconds() {
+    return maxRetryAfterSeconds == null ? MixPanelApi.DEFAULT_MAX_RETRY_AFTER_SECONDS : maxRetryAfterSeconds;
+  }
+
+  public boolean incremental() {
+    return "on".equals(incremental);
+  }
+
+  @Nullable
+  public String getWatermarkPath() {
+    return watermarkPath;
+  }
+
+  public int getWatermarkDelayMinutes() {
+    return watermarkDelayMinutes == null ? DEFAULT_WATERMARK_DELAY_MINUTES : watermarkDelayMinutes;
+  }
+
+  public boolean prefetch() {
+    return "on".equals(prefetch);
+  }
+
+  public int getPrefetchBufferSize() {
+    return prefetchBufferSize == null ? MixPanelPrefetchInputStream.DEFAULT_BUFFER_SIZE : prefetchBufferSize;
+  }
+
+  public int getStreamsPerSplit() {
+    return streamsPerSplit == null ? 1 : streamsPerSplit;
+  }
+
+  /**
+   * Returns configured stream window, or null if windows are sized by the split, see
+   * {@link MixPanelMultiStreamExport#getDefaultWindowMinutes}.
+   */
+  @Nullable
+  public Integer getStreamWindowMinutes() {
+    return streamWindowMinutes;
+  }
+
+  public boolean orderedStreams() {
+    return "on".equals(orderedStreams);
+  }
+
+  /**
+   * Returns number of threads every reader parses events on, 0 if events are parsed by the pipeline one by one.
+   */
+  public int getParserThreads() {
+    return parserThreads == null ? 0 : parserThreads;
+  }
+
+  @Nullable
+  public String getLocalFilter() {
+    return localFilter;
+  }
+
+  /**
+   * Returns fraction of events to read, 1 if events are not sampled.
+   */
+  public double getSamplingRate() {
+    return samplingRate == null ? 1 : samplingRate;
+  }
+
+  public String getSamplingKey() {
+    return samplingKey == null || samplingKey.isEmpty() ? MixPanelEventFilter.SAMPLING_KEY_DISTINCT_ID : samplingKey;
+  }
+
+  /**
+   * Returns copy of this config, which exports given date range.
+   */
+  public MixPanelBatchSourceConfig withDates(String fromDate, String toDate) {
+    MixPanelBatchSourceConfig config = GSON.fromJson(GSON.toJson(this), MixPanelBatchSourceConfig.class);
+    config.fromDate = fromDate;
+    config.toDate = toDate;
+    config.schema = schema;
+    config.propertyNames = propertyNames;
+    return config;
+  }
+
+  public ZoneId getTimeZone() {
+    if (timeZone == null || timeZone.isEmpty()) {
+      return ZoneId.of(DEFAULT_TIME_ZONE);
+    }
+    return ZoneId.of(timeZone);
+  }
+
   public Schema getSchema() {
     if (schema == null) {
-      schema = MixPanelSchemaHelper.getSchemaFromConfig(this);
+      MixPanelSchemaHelper.DiscoveredSchema discoveredSchema = MixPanelSchemaCache.getDiscoveredSchema(this);
+      schema = discoveredSchema.getSchema();
+      propertyNames = discoveredSchema.getPropertyNames();
     }
     return schema;
   }
 
+  /**
+   * Returns raw names of properties the schema was generated from, see {@link #getSchema()}.
+   */
+  public List<String> getPropertyNames() {
+    getSchema();
+    return propertyNames;
+  }
+
   void validate(FailureCollector failureCollector) {
     IdUtils.validateReferenceName(referenceName, failureCollector);
     try {
@@ -193,16 +697,205 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
         .addFailure(String.format("Invalid date '%s'.", getFromDate()), "Change date to YYYY-MM-DD format.")
         .withConfigProperty(PROPERTY_FROM_DATE);
     }
-    if (!DATE_REGEX.matcher(getToDate()).matches()) {
+    if (getToDate() == null || getToDate().isEmpty()) {
+      if (!incremental()) {
+        failureCollector
+          .addFailure("No end date specified.", "Specify end date or enable incremental mode.")
+          .withConfigProperty(PROPERTY_TO_DATE);
+      }
+    } else if (!DATE_REGEX.matcher(getToDate()).matches()) {
       failureCollector
         .addFailure(String.format("Invalid date '%s'.", getToDate()), "Change date to YYYY-MM-DD format.")
         .withConfigProperty(PROPERTY_TO_DATE);
     }
+    if (incremental() && (watermarkPath == null || watermarkPath.isEmpty())) {
+      failureCollector
+        .addFailure("No watermark path specified.", "Specify file to store watermark of incremental mode in.")
+        .withConfigProperty(PROPERTY_WATERMARK_PATH);
+    }
+    if (watermarkDelayMinutes != null && watermarkDelayMinutes < 0) {
+      failureCollector
+        .addFailure(String.format("Invalid watermark delay '%d'.", watermarkDelayMinutes),
+                    "Set zero or positive number of minutes.")
+        .withConfigProperty(PROPERTY_WATERMARK_DELAY_MINUTES);
+    }
     if (schemaByEvents() && getEvents().isEmpty()) {
       failureCollector
         .addFailure("No events specified.", "Specify event names or uncheck schemaByEvents.")
         .withConfigProperty(PROPERTY_SCHEMA_BY_EVENTS);
     }
+    if (!schemaByEvents() && !getEventProperties().isEmpty()) {
+      failureCollector
+        .addFailure("Properties are specified, but schema is not generated by events.",
+                    "Enable schemaByEvents or remove eventProperties.")
+        .withConfigProperty(PROPERTY_EVENT_PROPERTIES);
+    }
+    if (daysPerSplit != null && daysPerSplit <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid days per split '%d'.", daysPerSplit), "Set positive number of days.")
+        .withConfigProperty(PROPERTY_DAYS_PER_SPLIT);
+    }
+    if (maxSplits != null && maxSplits <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid max splits '%d'.", maxSplits), "Set positive number of splits.")
+        .withConfigProperty(PROPERTY_MAX_SPLITS);
+    }
+    if (splitWindowMinutes != null && (splitWindowMinutes <= 0 || splitWindowMinutes > MINUTES_PER_DAY)) {
+      failureCollector
+        .addFailure(String.format("Invalid split window '%d'.", splitWindowMinutes),
+                    String.format("Set number of minutes between 1 and %d.", MINUTES_PER_DAY))
+        .withConfigProperty(PROPERTY_SPLIT_WINDOW_MINUTES);
+    }
+    if (eventsPerSplit != null && eventsPerSplit <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid events per split '%d'.", eventsPerSplit), "Set positive number of events.")
+        .withConfigProperty(PROPERTY_EVENTS_PER_SPLIT);
+    }
+    if (eventsPerSplit != null && getEvents().isEmpty()) {
+      failureCollector
+        .addFailure("No events specified.", "Specify event names or remove events per split.")
+        .withConfigProperty(PROPERTY_EVENTS_PER_SPLIT);
+    }
+    if (adaptiveSplits() && getEvents().isEmpty()) {
+      failureCollector
+        .addFailure("No events specified.", "Specify event names or turn off adaptive splits.")
+        .withConfigProperty(PROPERTY_ADAPTIVE_SPLITS);
+    }
+    if (targetEventsPerSplit != null && targetEventsPerSplit <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid target events per split '%d'.", targetEventsPerSplit),
+                    "Set positive number of events.")
+        .withConfigProperty(PROPERTY_TARGET_EVENTS_PER_SPLIT);
+    }
+    if (schemaSampleSize != null && schemaSampleSize <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid schema sample size '%d'.", schemaSampleSize),
+                    "Set positive number of events.")
+        .withConfigProperty(PROPERTY_SCHEMA_SAMPLE_SIZE);
+    }
+    if (schemaDiscoveryThreads != null && schemaDiscoveryThreads <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid number of schema discovery threads '%d'.", schemaDiscoveryThreads),
+                    "Set positive number of threads.")
+        .withConfigProperty(PROPERTY_SCHEMA_DISCOVERY_THREADS);
+    }
+    if (requestTimeoutSeconds != null && requestTimeoutSeconds <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid request timeout '%d'.", requestTimeoutSeconds),
+                    "Set positive number of seconds.")
+        .withConfigProperty(PROPERTY_REQUEST_TIMEOUT_SECONDS);
+    }
+    if (schemaCacheTtlMinutes != null && schemaCacheTtlMinutes <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid schema cache TTL '%d'.", schemaCacheTtlMinutes),
+                    "Set positive number of minutes.")
+        .withConfigProperty(PROPERTY_SCHEMA_CACHE_TTL_MINUTES);
+    }
+    if (maxConnections != null && maxConnections <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid max connections '%d'.", maxConnections),
+                    "Set positive number of connections.")
+        .withConfigProperty(PROPERTY_MAX_CONNECTIONS);
+    }
+    if (connectTimeoutSeconds != null && connectTimeoutSeconds <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid connect timeout '%d'.", connectTimeoutSeconds),
+                    "Set positive number of seconds.")
+        .withConfigProperty(PROPERTY_CONNECT_TIMEOUT_SECONDS);
+    }
+    if (keepAliveSeconds != null && keepAliveSeconds <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid keep alive time '%d'.", keepAliveSeconds),
+                    "Set positive number of seconds.")
+        .withConfigProperty(PROPERTY_KEEP_ALIVE_SECONDS);
+    }
+    if (socketBufferSize != null && socketBufferSize <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid socket buffer size '%d'.", socketBufferSize),
+                    "Set positive number of bytes.")
+        .withConfigProperty(PROPERTY_SOCKET_BUFFER_SIZE);
+    }
+    if (decompressionBufferSize != null && decompressionBufferSize <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid decompression buffer size '%d'.", decompressionBufferSize),
+                    "Set positive number of bytes.")
+        .withConfigProperty(PROPERTY_DECOMPRESSION_BUFFER_SIZE);
+    }
+    if (maxRequestsPerHour != null && maxRequestsPerHour <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid max requests per hour '%d'.", maxRequestsPerHour),
+                    "Set positive number of requests.")
+        .withConfigProperty(PROPERTY_MAX_REQUESTS_PER_HOUR);
+    }
+    if (maxRetries != null && maxRetries < 0) {
+      failureCollector
+        .addFailure(String.format("Invalid max retries '%d'.", maxRetries),
+                    "Set zero or positive number of retries.")
+        .withConfigProperty(PROPERTY_MAX_RETRIES);
+    }
+    if (maxRetryDelaySeconds != null && maxRetryDelaySeconds <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid max retry delay '%d'.", maxRetryDelaySeconds),
+                    "Set positive number of seconds.")
+        .withConfigProperty(PROPERTY_MAX_RETRY_DELAY_SECONDS);
+    }
+    if (maxRetryAfterSeconds != null && maxRetryAfterSeconds <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid max retry after delay '%d'.", maxRetryAfterSeconds),
+                    "Set positive number of seconds.")
+        .withConfigProperty(PROPERTY_MAX_RETRY_AFTER_SECONDS);
+    }
+    if (prefetchBufferSize != null && prefetchBufferSize <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid prefetch buffer size '%d'.", prefetchBufferSize),
+                    "Set positive number of bytes.")
+        .withConfigProperty(PROPERTY_PREFETCH_BUFFER_SIZE);
+    }
+    if (streamsPerSplit != null && streamsPerSplit <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid streams per split '%d'.", streamsPerSplit),
+                    "Set positive number of streams.")
+        .withConfigProperty(PROPERTY_STREAMS_PER_SPLIT);
+    }
+    if (streamWindowMinutes != null && (streamWindowMinutes <= 0 || streamWindowMinutes > MINUTES_PER_DAY)) {
+      failureCollector
+        .addFailure(String.format("Invalid stream window '%d'.", streamWindowMinutes),
+                    String.format("Set number of minutes between 1 and %d.", MINUTES_PER_DAY))
+        .withConfigProperty(PROPERTY_STREAM_WINDOW_MINUTES);
+    }
+    if (parserThreads != null && parserThreads <= 0) {
+      failureCollector
+        .addFailure(String.format("Invalid parser threads '%d'.", parserThreads), "Set positive number of threads.")
+        .withConfigProperty(PROPERTY_PARSER_THREADS);
+    }
+    try {
+      MixPanelEventFilter.parseConditions(localFilter);
+    } catch (IllegalArgumentException e) {
+      failureCollector
+        .addFailure(e.getMessage(), "Specify conditions like 'property=value' or 'property!=value'.")
+        .withConfigProperty(PROPERTY_LOCAL_FILTER);
+    }
+    if (samplingRate != null && !(samplingRate > 0 && samplingRate <= 1)) {
+      failureCollector
+        .addFailure(String.format("Invalid sampling rate '%s'.", samplingRate),
+                    "Set fraction of events greater than 0 and not greater than 1.")
+        .withConfigProperty(PROPERTY_SAMPLING_RATE);
+    }
+    if (!getSamplingKey().equals(MixPanelEventFilter.SAMPLING_KEY_DISTINCT_ID)
+      && !getSamplingKey().equals(MixPanelEventFilter.SAMPLING_KEY_INSERT_ID)) {
+      failureCollector
+        .addFailure(String.format("Invalid sampling key '%s'.", samplingKey),
+                    String.format("Set sampling key to '%s' or '%s'.", MixPanelEventFilter.SAMPLING_KEY_DISTINCT_ID,
+                                  MixPanelEventFilter.SAMPLING_KEY_INSERT_ID))
+        .withConfigProperty(PROPERTY_SAMPLING_KEY);
+    }
+    try {
+      getTimeZone();
+    } catch (DateTimeException e) {
+      failureCollector
+        .addFailure(String.format("Invalid time zone '%s'.", timeZone), "Change time zone to valid zone id.")
+        .withConfigProperty(PROPERTY_TIME_ZONE);
+    }
   }
 
   /**
@@ -218,6 +911,41 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
     private String mixPanelDataUrl;
     private String mixPanelRestApiUrl;
     private String schemaByEvents;
+    private String eventProperties;
+    private Integer daysPerSplit;
+    private Integer maxSplits;
+    private Integer splitWindowMinutes;
+    private String timeZone;
+    private Integer eventsPerSplit;
+    private String adaptiveSplits;
+    private Long targetEventsPerSplit;
+    private String inferTypes;
+    private Integer schemaSampleSize;
+    private Integer schemaDiscoveryThreads;
+    private Integer requestTimeoutSeconds;
+    private Integer schemaCacheTtlMinutes;
+    private String schemaCachePath;
+    private Integer maxConnections;
+    private Integer connectTimeoutSeconds;
+    private Integer keepAliveSeconds;
+    private Integer socketBufferSize;
+    private Integer decompressionBufferSize;
+    private Integer maxRequestsPerHour;
+    private Integer maxRetries;
+    private Integer maxRetryDelaySeconds;
+    private Integer maxRetryAfterSeconds;
+    private String incremental;
+    private String watermarkPath;
+    private Integer watermarkDelayMinutes;
+    private String prefetch;
+    private Integer prefetchBufferSize;
+    private Integer streamsPerSplit;
+    private Integer streamWindowMinutes;
+    private String orderedStreams;
+    private Integer parserThreads;
+    private String localFilter;
+    private Double samplingRate;
+    private String samplingKey;
 
     private Builder() {
 
@@ -263,11 +991,186 @@ public class MixPanelBatchSourceConfig extends ReferencePluginConfig {
       return this;
     }
 
+    public Builder setEventProperties(String eventProperties) {
+      this.eventProperties = eventProperties;
+      return this;
+    }
+
     public Builder setMixPanelRestApiUrl(String mixPanelRestApiUrl) {
       this.mixPanelRestApiUrl = mixPanelRestApiUrl;
       return this;
     }
 
+    public Builder setDaysPerSplit(Integer daysPerSplit) {
+      this.daysPerSplit = daysPerSplit;
+      return this;
+    }
+
+    public Builder setMaxSplits(Integer maxSplits) {
+      this.maxSplits = maxSplits;
+      return this;
+    }
+
+    public Builder setSplitWindowMinutes(Integer splitWindowMinutes) {
+      this.splitWindowMinutes = splitWindowMinutes;
+      return this;
+    }
+
+    public Builder setTimeZone(String timeZone) {
+      this.timeZone = timeZone;
+      return this;
+    }
+
+    public Builder setEventsPerSplit(Integer eventsPerSplit) {
+      this.eventsPerSplit = eventsPerSplit;
+      return this;
+    }
+
+    public Builder setAdaptiveSplits(String adaptiveSplits) {
+      this.adaptiveSplits = adaptiveSplits;
+      return this;
+    }
+
+    public Builder setTargetEventsPerSplit(Long targetEventsPerSplit) {
+      this.targetEventsPerSplit = targetEventsPerSplit;
+      return this;
+    }
+
+    public Builder setInferTypes(String inferTypes) {
+      this.inferTypes = inferTypes;
+      return this;
+    }
+
+    public Builder setSchemaSampleSize(Integer schemaSampleSize) {
+      this.schemaSampleSize = schemaSampleSize;
+      return this;
+    }
+
+    public Builder setSchemaDiscoveryThreads(Integer schemaDiscoveryThreads) {
+      this.schemaDiscoveryThreads = schemaDiscoveryThreads;
+      return this;
+    }
+
+    public Builder setRequestTimeoutSeconds(Integer requestTimeoutSeconds) {
+      this.requestTimeoutSeconds = requestTimeoutSeconds;
+      return this;
+    }
+
+    public Builder setSchemaCacheTtlMinutes(Integer schemaCacheTtlMinutes) {
+      this.schemaCacheTtlMinutes = schemaCacheTtlMinutes;
+      return this;
+    }
+
+    public Builder setSchemaCachePath(String schemaCachePath) {
+      this.schemaCachePath = schemaCachePath;
+      return this;
+    }
+
+    public Builder setMaxConnections(Integer maxConnections) {
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    public Builder setConnectTimeoutSeconds(Integer connectTimeoutSeconds) {
+      this.connectTimeoutSeconds = connectTimeoutSeconds;
+      return this;
+    }
+
+    public Builder setKeepAliveSeconds(Integer keepAliveSeconds) {
+      this.keepAliveSeconds = keepAliveSeconds;
+      return this;
+    }
+
+    public Builder setSocketBufferSize(Integer socketBufferSize) {
+      this.socketBufferSize = socketBufferSize;
+      return this;
+    }
+
+    public Builder setDecompressionBufferSize(Integer decompressionBufferSize) {
+      this.decompressionBufferSize = decompressionBufferSize;
+      return this;
+    }
+
+    public Builder setMaxRequestsPerHour(Integer maxRequestsPerHour) {
+      this.maxRequestsPerHour = maxRequestsPerHour;
+      return this;
+    }
+
+    public Builder setMaxRetries(Integer maxRetries) {
+      this.maxRetries = maxRetries;
+      return this;
+    }
+
+    public Builder setMaxRetryDelaySeconds(Integer maxRetryDelaySeconds) {
+      this.maxRetryDelaySeconds = maxRetryDelaySeconds;
+      return this;
+    }
+
+    public Builder setMaxRetryAfterSeconds(Integer maxRetryAfterSeconds) {
+      this.maxRetryAfterSeconds = maxRetryAfterSeconds;
+      return this;
+    }
+
+    public Builder setIncremental(String incremental) {
+      this.incremental = incremental;
+      return this;
+    }
+
+    public Builder setWatermarkPath(String watermarkPath) {
+      this.watermarkPath = watermarkPath;
+      return this;
+    }
+
+    public Builder setWatermarkDelayMinutes(Integer watermarkDelayMinutes) {
+      this.watermarkDelayMinutes = watermarkDelayMinutes;
+      return this;
+    }
+
+    public Builder setPrefetch(String prefetch) {
+      this.prefetch = prefetch;
+      return this;
+    }
+
+    public Builder setPrefetchBufferSize(Integer prefetchBufferSize) {
+      this.prefetchBufferSize = prefetchBufferSize;
+      return this;
+    }
+
+    public Builder setStreamsPerSplit(Integer streamsPerSplit) {
+      this.streamsPerSplit = streamsPerSplit;
+      return this;
+    }
+
+    public Builder setStreamWindowMinutes(Integer streamWindowMinutes) {
+      this.streamWindowMinutes = streamWindowMinutes;
+      return this;
+    }
+
+    public Builder setOrderedStreams(String orderedStreams) {
+      this.orderedStreams = orderedStreams;
+      return this;
+    }
+
+    public Builder setParserThreads(Integer parserThreads) {
+      this.parserThreads = parserThreads;
+      return this;
+    }
+
+    public Builder setLocalFilter(String localFilter) {
+      this.localFilter = localFilter;
+      return this;
+    }
+
+    public Builder setSamplingRate(Double samplingRate) {
+      this.samplingRate = samplingRate;
+      return this;
+    }
+
+    public Builder setSamplingKey(String samplingKey) {
+      this.samplingKey = samplingKey;
+      return this;
+    }
+
     public MixPanelBatchSourceConfig build() {
       return new MixPanelBatchSourceConfig(this);
     }
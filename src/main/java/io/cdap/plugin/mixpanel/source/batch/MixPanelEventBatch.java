@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.hadoop.io.Text;
+
+import java.util.Arrays;
+
+/**
+ * Raw events copied into a single buffer, so they can be passed between threads at once without an object per event.
+ */
+public class MixPanelEventBatch {
+  public static final int DEFAULT_SIZE = 64 * 1024;
+
+  private byte[] bytes;
+  private int[] ends = new int[256];
+  private int count;
+  private int length;
+
+  public MixPanelEventBatch() {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * @param size number of bytes after which the batch is full, unless it has a single larger event
+   */
+  public MixPanelEventBatch(int size) {
+    bytes = new byte[size];
+  }
+
+  /**
+   * Copies event into the batch.
+   *
+   * @return false if batch is full
+   */
+  public boolean add(Text event) {
+    if (count > 0 && length + event.getLength() > bytes.length) {
+      return false;
+    }
+    if (length + event.getLength() > bytes.length) {
+      // event larger than a batch
+      bytes = Arrays.copyOf(bytes, event.getLength());
+    }
+    if (count == ends.length) {
+      ends = Arrays.copyOf(ends, count * 2);
+    }
+    System.arraycopy(event.getBytes(), 0, bytes, length, event.getLength());
+    length += event.getLength();
+    ends[count++] = length;
+    return true;
+  }
+
+  /**
+   * Copies bytes of event at given index into given text.
+   */
+  public void get(int index, Text event) {
+    int start = index == 0 ? 0 : ends[index - 1];
+    event.set(bytes, start, ends[index] - start);
+  }
+
+  /**
+   * Returns number of events in the batch.
+   */
+  public int size() {
+    return count;
+  }
+}
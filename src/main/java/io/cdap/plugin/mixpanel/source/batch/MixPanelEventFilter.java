@@ -0,0 +1,284 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Filters exported events by conditions on event name and properties and samples them by hash of a property, before
+ * events are parsed. Values are found by scanning raw event bytes, so dropped events are never decoded. Sampling is
+ * deterministic, an event is kept or dropped by every run, and all events of a user are kept or dropped together if
+ * sampled by distinct id. Instances are not thread safe.
+ */
+public class MixPanelEventFilter {
+  public static final String SAMPLING_KEY_DISTINCT_ID = "distinct_id";
+  public static final String SAMPLING_KEY_INSERT_ID = "$insert_id";
+  // conditions on this name match the top level event name instead of a property
+  public static final String EVENT_NAME_KEY = "event";
+  private static final byte[] PROPERTIES_KEY = "\"properties\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] EVENT_KEY = "\"event\"".getBytes(StandardCharsets.UTF_8);
+  // sampling compares 53 bits of hash, which are exactly representable by double
+  private static final long SAMPLING_RANGE = 1L << 53;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final List<Condition> conditions;
+  // names of properties values are looked up for, conditions first and sampling key last
+  private final byte[][] names;
+  private final String[] nameStrings;
+  // whether values of names are looked up at the top level of the event instead of among properties
+  private final boolean[] topLevel;
+  private final int properties;
+  private final boolean sampled;
+  private final long samplingThreshold;
+  // positions of values found in the current event, -1 if not found
+  private final int[] valueStarts;
+  private final int[] valueEnds;
+
+  /**
+   * @param conditions conditions events must match
+   * @param samplingRate fraction of events to keep, 1 to keep all events
+   * @param samplingKey raw name of property events are sampled by
+   */
+  public MixPanelEventFilter(List<Condition> conditions, double samplingRate, String samplingKey) {
+    this.conditions = conditions;
+    this.sampled = samplingRate < 1;
+    this.samplingThreshold = (long) (samplingRate * SAMPLING_RANGE);
+    List<String> lookedUp = new ArrayList<>();
+    for (Condition condition : conditions) {
+      lookedUp.add(condition.name);
+    }
+    if (sampled) {
+      lookedUp.add(samplingKey);
+    }
+    nameStrings = lookedUp.toArray(new String[0]);
+    names = new byte[nameStrings.length][];
+    topLevel = new boolean[nameStrings.length];
+    int topLevelNames = 0;
+    for (int i = 0; i < nameStrings.length; i++) {
+      names[i] = nameStrings[i].getBytes(StandardCharsets.UTF_8);
+      topLevel[i] = i < conditions.size() && EVENT_NAME_KEY.equals(nameStrings[i]);
+      topLevelNames += topLevel[i] ? 1 : 0;
+    }
+    properties = names.length - topLevelNames;
+    valueStarts = new int[names.length];
+    valueEnds = new int[names.length];
+  }
+
+  /**
+   * Returns filter configured by local filter and sampling properties, or null if all events are kept.
+   */
+  @Nullable
+  public static MixPanelEventFilter of(MixPanelBatchSourceConfig config) {
+    List<Condition> conditions = parseConditions(config.getLocalFilter());
+    if (conditions.isEmpty() && config.getSamplingRate() >= 1) {
+      return null;
+    }
+    return new MixPanelEventFilter(conditions, config.getSamplingRate(), config.getSamplingKey());
+  }
+
+  /**
+   * Parses comma separated conditions like {@code $os=Linux,plan!=free}. Spaces around names and values are ignored.
+   *
+   * @throws IllegalArgumentException if a condition has no operator or no property name
+   */
+  public static List<Condition> parseConditions(@Nullable String conditions) {
+    if (conditions == null || conditions.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<Condition> parsed = new ArrayList<>();
+    for (String condition : conditions.split(",")) {
+      int notEquals = condition.indexOf("!=");
+      int equals = condition.indexOf('=');
+      Condition parsedCondition;
+      if (notEquals >= 0 && notEquals < equals) {
+        parsedCondition = new Condition(condition.substring(0, notEquals).trim(),
+                                        condition.substring(notEquals + 2).trim(), false);
+      } else if (equals >= 0) {
+        parsedCondition = new Condition(condition.substring(0, equals).trim(), condition.substring(equals + 1).trim(),
+                                        true);
+      } else {
+        throw new IllegalArgumentException(String.format("Condition '%s' has no operator.", condition));
+      }
+      if (parsedCondition.name.isEmpty()) {
+        throw new IllegalArgumentException(String.format("Condition '%s' has no property name.", condition));
+      }
+      parsed.add(parsedCondition);
+    }
+    return parsed;
+  }
+
+  /**
+   * Returns true if event matches all conditions and is sampled. Events which can not be scanned are kept, so they
+   * are handled as malformed by the parser.
+   */
+  public boolean accept(byte[] bytes, int length) {
+    try {
+      findValues(bytes, length);
+    } catch (IOException e) {
+      return true;
+    }
+    for (int i = 0; i < conditions.size(); i++) {
+      if (!conditions.get(i).matches(bytes, valueStarts[i], valueEnds[i])) {
+        return false;
+      }
+    }
+    if (!sampled) {
+      return true;
+    }
+    int key = names.length - 1;
+    return (hash(bytes, valueStarts[key], valueEnds[key]) >>> 11) < samplingThreshold;
+  }
+
+  /**
+   * Finds values of looked up properties among properties of the event, without descending into nested values, and
+   * value of event name if it is looked up.
+   */
+  private void findValues(byte[] bytes, int end) throws IOException {
+    Arrays.fill(valueStarts, -1);
+    Arrays.fill(valueEnds, -1);
+    boolean eventNameLookedUp = properties < names.length;
+    int position = MixPanelEventScanner.expect(bytes, 0, end, '{');
+    while (position < end && bytes[position] != '}') {
+      int keyStart = position;
+      int keyEnd = MixPanelEventScanner.skipString(bytes, position, end);
+      position = MixPanelEventScanner.expect(bytes, keyEnd, end, ':');
+      if (MixPanelEventScanner.keyEquals(bytes, keyStart, keyEnd, PROPERTIES_KEY)
+        && position < end && bytes[position] == '{') {
+        findPropertyValues(bytes, position, end);
+        if (!eventNameLookedUp) {
+          return;
+        }
+      }
+      int valueEnd = MixPanelEventScanner.skipValue(bytes, position, end);
+      if (eventNameLookedUp && MixPanelEventScanner.keyEquals(bytes, keyStart, keyEnd, EVENT_KEY)) {
+        for (int i = 0; i < names.length; i++) {
+          if (topLevel[i]) {
+            valueStarts[i] = position;
+            valueEnds[i] = valueEnd;
+          }
+        }
+      }
+      position = MixPanelEventScanner.skipWhitespace(bytes, valueEnd, end);
+      if (position < end && bytes[position] == ',') {
+        position = MixPanelEventScanner.skipWhitespace(bytes, position + 1, end);
+      }
+    }
+  }
+
+  private void findPropertyValues(byte[] bytes, int position, int end) throws IOException {
+    int remaining = properties;
+    position = MixPanelEventScanner.expect(bytes, position, end, '{');
+    while (remaining > 0 && position < end && bytes[position] != '}') {
+      int keyStart = position;
+      int keyEnd = MixPanelEventScanner.skipString(bytes, position, end);
+      position = MixPanelEventScanner.expect(bytes, keyEnd, end, ':');
+      int valueEnd = MixPanelEventScanner.skipValue(bytes, position, end);
+      boolean escaped = MixPanelEventScanner.indexOf(bytes, keyStart + 1, keyEnd - 1, (byte) '\\') >= 0;
+      String decodedKey = escaped ? MixPanelEventScanner.decodeString(bytes, keyStart, keyEnd) : null;
+      for (int i = 0; i < names.length; i++) {
+        if (topLevel[i]) {
+          continue;
+        }
+        boolean matches = escaped ? nameStrings[i].equals(decodedKey)
+          : MixPanelEventScanner.keyEquals(bytes, keyStart + 1, keyEnd - 1, names[i]);
+        if (matches && valueStarts[i] < 0) {
+          valueStarts[i] = position;
+          valueEnds[i] = valueEnd;
+          remaining--;
+        }
+      }
+      position = MixPanelEventScanner.skipWhitespace(bytes, valueEnd, end);
+      if (position < end && bytes[position] == ',') {
+        position = MixPanelEventScanner.skipWhitespace(bytes, position + 1, end);
+      }
+    }
+  }
+
+  /**
+   * Returns 64 bit hash of value bytes, content of strings is hashed without quotes. Missing value is hashed as empty.
+   */
+  static long hash(byte[] bytes, int start, int end) {
+    if (start >= 0 && bytes[start] == '"') {
+      start++;
+      end--;
+    }
+    // FNV-1a followed by murmur3 finalizer, so high bits depend on every byte
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = Math.max(start, 0); i < end; i++) {
+      hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+    }
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+
+  /**
+   * Condition on value of an event property, or of event name if its name is {@link #EVENT_NAME_KEY}. Strings are
+   * compared with their content, other values with their json literal, e.g. {@code true} or {@code 3}.
+   */
+  public static final class Condition {
+    private final String name;
+    private final String value;
+    private final byte[] valueBytes;
+    private final boolean equals;
+
+    /**
+     * @param equals true if value must be equal, false if it must differ or be missing
+     */
+    public Condition(String name, String value, boolean equals) {
+      this.name = name;
+      this.value = value;
+      this.valueBytes = value.getBytes(StandardCharsets.UTF_8);
+      this.equals = equals;
+    }
+
+    private boolean matches(byte[] bytes, int start, int end) {
+      if (start < 0) {
+        return !equals;
+      }
+      return valueEquals(bytes, start, end) == equals;
+    }
+
+    private boolean valueEquals(byte[] bytes, int start, int end) {
+      if (bytes[start] == '"') {
+        start++;
+        end--;
+        if (MixPanelEventScanner.indexOf(bytes, start, end, (byte) '\\') >= 0) {
+          try {
+            return value.equals(MixPanelEventScanner.decodeString(bytes, start - 1, end + 1));
+          } catch (IOException e) {
+            return false;
+          }
+        }
+      }
+      return MixPanelEventScanner.keyEquals(bytes, start, end, valueBytes);
+    }
+
+    @Override
+    public String toString() {
+      return name + (equals ? "=" : "!=") + value;
+    }
+  }
+}
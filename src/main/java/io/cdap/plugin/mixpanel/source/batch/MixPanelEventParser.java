@@ -0,0 +1,375 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Parses MixPanel event json into record of output schema. Event is read token by token, values of properties which
+ * are not included to schema are skipped without being built. If mapping is limited to listed properties, event is
+ * scanned as bytes instead, so names and values of other properties are not decoded at all. Instances are not thread
+ * safe.
+ */
+public class MixPanelEventParser {
+  // one of this many events is timed in detail, to estimate time spent mapping properties to fields
+  static final int MAPPING_SAMPLE_INTERVAL = 64;
+  private static final JsonParser JSON_PARSER = new JsonParser();
+  private static final Schema STRING_SCHEMA = Schema.of(Schema.Type.STRING);
+  private static final byte[] EVENT_KEY = "\"event\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] PROPERTIES_KEY = "\"properties\"".getBytes(StandardCharsets.UTF_8);
+
+  private final MixPanelFieldMapping fieldMapping;
+  private final MixPanelMetrics metrics;
+  private final Utf8Reader eventReader = new Utf8Reader();
+  private int events;
+
+  public MixPanelEventParser(MixPanelFieldMapping fieldMapping) {
+    this(fieldMapping, new MixPanelMetrics());
+  }
+
+  /**
+   * @param metrics metrics of the stage dropped values and mapping time are recorded to
+   */
+  public MixPanelEventParser(MixPanelFieldMapping fieldMapping, MixPanelMetrics metrics) {
+    this.fieldMapping = fieldMapping;
+    this.metrics = metrics;
+  }
+
+  public StructuredRecord parse(Text event) throws IOException {
+    if (fieldMapping.isProjected()) {
+      return parseProjected(event.getBytes(), event.getLength());
+    }
+    eventReader.reset(event.getBytes(), 0, event.getLength());
+    JsonReader jsonReader = new JsonReader(eventReader);
+    StructuredRecord.Builder builder = StructuredRecord.builder(fieldMapping.getSchema());
+    boolean sampled = events++ % MAPPING_SAMPLE_INTERVAL == 0;
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      String name = jsonReader.nextName();
+      if (name.equals("event")) {
+        builder.set(MixPanelSchemaHelper.EVENT_NAME_FIELD, readValue(jsonReader));
+      } else if (name.equals("properties") && jsonReader.peek() == JsonToken.BEGIN_OBJECT) {
+        readProperties(jsonReader, builder, sampled);
+      } else {
+        jsonReader.skipValue();
+      }
+    }
+    jsonReader.endObject();
+    return builder.build();
+  }
+
+  /**
+   * @param sampled whether time of mapping properties to fields is measured
+   */
+  private void readProperties(JsonReader jsonReader, StructuredRecord.Builder builder, boolean sampled)
+    throws IOException {
+    long mappingNanos = 0;
+    jsonReader.beginObject();
+    while (jsonReader.hasNext()) {
+      String name = jsonReader.nextName();
+      long startNanos = sampled ? System.nanoTime() : 0;
+      Schema.Field field = fieldMapping.getField(name);
+      if (field == null) {
+        jsonReader.skipValue();
+      } else {
+        builder.set(field.getName(), readValue(jsonReader, field.getSchema()));
+      }
+      if (sampled) {
+        mappingNanos += System.nanoTime() - startNanos;
+      }
+    }
+    jsonReader.endObject();
+    if (sampled) {
+      metrics.mappingNanos.add(mappingNanos * MAPPING_SAMPLE_INTERVAL);
+    }
+  }
+
+  /**
+   * Reads value converted to given schema. Values which can not be converted are read as null.
+   */
+  @Nullable
+  private Object readValue(JsonReader jsonReader, Schema schema) throws IOException {
+    if (schema.isNullable()) {
+      schema = schema.getNonNullable();
+    }
+    if (schema.getType() == Schema.Type.STRING) {
+      return readValue(jsonReader);
+    }
+    if (jsonReader.peek() != JsonToken.NUMBER && jsonReader.peek() != JsonToken.STRING
+      && jsonReader.peek() != JsonToken.BOOLEAN) {
+      if (jsonReader.peek() != JsonToken.NULL) {
+        metrics.valuesDropped.increment();
+      }
+      jsonReader.skipValue();
+      return null;
+    }
+
+    String value = jsonReader.peek() == JsonToken.BOOLEAN ? Boolean.toString(jsonReader.nextBoolean())
+      : jsonReader.nextString();
+    return convert(value, schema);
+  }
+
+  /**
+   * Converts scalar value to given non nullable schema, or to null if it can not be converted. Integral values written
+   * in decimal or exponent notation, e.g. {@code 2.0}, are accepted for long fields. Values which are dropped are
+   * counted by {@link MixPanelMetrics#valuesDropped}.
+   */
+  @Nullable
+  private Object convert(String value, Schema schema) {
+    try {
+      if (schema.getLogicalType() == Schema.LogicalType.TIMESTAMP_MICROS) {
+        // event time is in seconds
+        return (long) (Double.parseDouble(value) * TimeUnit.SECONDS.toMicros(1));
+      }
+      switch (schema.getType()) {
+        case LONG:
+          return toLong(value);
+        case DOUBLE:
+          return Double.parseDouble(value);
+        case BOOLEAN:
+          if (value.equals("true") || value.equals("false")) {
+            return Boolean.valueOf(value);
+          }
+          metrics.valuesDropped.increment();
+          return null;
+        default:
+          return value;
+      }
+    } catch (NumberFormatException e) {
+      metrics.valuesDropped.increment();
+      return null;
+    }
+  }
+
+  private static long toLong(String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      double number = Double.parseDouble(value);
+      // Math.rint keeps integral values only, cast would silently truncate fractions and saturate overflows
+      if (number != Math.rint(number) || number < Long.MIN_VALUE || number >= Long.MAX_VALUE) {
+        throw e;
+      }
+      return (long) number;
+    }
+  }
+
+  /**
+   * Reads scalar value as string, arrays and objects are kept as json.
+   */
+  @Nullable
+  private static String readValue(JsonReader jsonReader) throws IOException {
+    switch (jsonReader.peek()) {
+      case NULL:
+        jsonReader.nextNull();
+        return null;
+      case BOOLEAN:
+        return Boolean.toString(jsonReader.nextBoolean());
+      case STRING:
+      case NUMBER:
+        return jsonReader.nextString();
+      default:
+        return JSON_PARSER.parse(jsonReader).toString();
+    }
+  }
+
+  /**
+   * Parses event for mapping limited to listed properties. Property names are matched as bytes, values of other
+   * properties are skipped by scanning for their end, and only values of listed properties are decoded. Structure of
+   * the event is validated, while scalar literals are taken as they are.
+   */
+  private StructuredRecord parseProjected(byte[] bytes, int end) throws IOException {
+    StructuredRecord.Builder builder = StructuredRecord.builder(fieldMapping.getSchema());
+    boolean sampled = events++ % MAPPING_SAMPLE_INTERVAL == 0;
+    int position = MixPanelEventScanner.expect(bytes, 0, end, '{');
+    if (position < end && bytes[position] == '}') {
+      return builder.build();
+    }
+    while (true) {
+      int keyStart = position;
+      int keyEnd = MixPanelEventScanner.skipString(bytes, position, end);
+      position = MixPanelEventScanner.expect(bytes, keyEnd, end, ':');
+      if (MixPanelEventScanner.keyEquals(bytes, keyStart, keyEnd, EVENT_KEY)) {
+        int valueEnd = MixPanelEventScanner.skipValue(bytes, position, end);
+        builder.set(MixPanelSchemaHelper.EVENT_NAME_FIELD, readValue(bytes, position, valueEnd, STRING_SCHEMA));
+        position = valueEnd;
+      } else if (MixPanelEventScanner.keyEquals(bytes, keyStart, keyEnd, PROPERTIES_KEY)
+        && position < end && bytes[position] == '{') {
+        position = readProperties(bytes, position, end, builder, sampled);
+      } else {
+        position = MixPanelEventScanner.skipValue(bytes, position, end);
+      }
+      position = MixPanelEventScanner.skipWhitespace(bytes, position, end);
+      if (position < end && bytes[position] == ',') {
+        position = MixPanelEventScanner.skipWhitespace(bytes, position + 1, end);
+      } else {
+        MixPanelEventScanner.expect(bytes, position, end, '}');
+        return builder.build();
+      }
+    }
+  }
+
+  /**
+   * Reads listed properties from bytes of properties object starting at given position.
+   *
+   * @return position after the properties object
+   */
+  private int readProperties(byte[] bytes, int position, int end, StructuredRecord.Builder builder, boolean sampled)
+    throws IOException {
+    long mappingNanos = 0;
+    position = MixPanelEventScanner.expect(bytes, position, end, '{');
+    if (position < end && bytes[position] == '}') {
+      return position + 1;
+    }
+    while (true) {
+      int keyStart = position;
+      int keyEnd = MixPanelEventScanner.skipString(bytes, position, end);
+      position = MixPanelEventScanner.expect(bytes, keyEnd, end, ':');
+      int valueEnd = MixPanelEventScanner.skipValue(bytes, position, end);
+      long startNanos = sampled ? System.nanoTime() : 0;
+      Schema.Field field = getField(bytes, keyStart, keyEnd);
+      if (field != null) {
+        builder.set(field.getName(), readValue(bytes, position, valueEnd, field.getSchema()));
+      }
+      if (sampled) {
+        mappingNanos += System.nanoTime() - startNanos;
+      }
+      position = MixPanelEventScanner.skipWhitespace(bytes, valueEnd, end);
+      if (position < end && bytes[position] == ',') {
+        position = MixPanelEventScanner.skipWhitespace(bytes, position + 1, end);
+      } else {
+        position = MixPanelEventScanner.expect(bytes, position, end, '}');
+        break;
+      }
+    }
+    if (sampled) {
+      metrics.mappingNanos.add(mappingNanos * MAPPING_SAMPLE_INTERVAL);
+    }
+    return position;
+  }
+
+  /**
+   * Returns field of quoted property name, which is decoded only if it contains escapes.
+   */
+  @Nullable
+  private Schema.Field getField(byte[] bytes, int keyStart, int keyEnd) throws IOException {
+    if (MixPanelEventScanner.indexOf(bytes, keyStart + 1, keyEnd - 1, (byte) '\\') >= 0) {
+      return fieldMapping.getField(MixPanelEventScanner.decodeString(bytes, keyStart, keyEnd));
+    }
+    return fieldMapping.getField(bytes, keyStart + 1, keyEnd - keyStart - 2);
+  }
+
+  /**
+   * Reads value from its bytes converted to given schema. Values which can not be converted are read as null.
+   */
+  @Nullable
+  private Object readValue(byte[] bytes, int start, int end, Schema schema) throws IOException {
+    if (schema.isNullable()) {
+      schema = schema.getNonNullable();
+    }
+    byte first = bytes[start];
+    if (first == 'n') {
+      return null;
+    }
+    if (first == '{' || first == '[') {
+      if (schema.getType() != Schema.Type.STRING) {
+        metrics.valuesDropped.increment();
+        return null;
+      }
+      // arrays and objects are kept as json
+      eventReader.reset(bytes, start, end - start);
+      return JSON_PARSER.parse(new JsonReader(eventReader)).toString();
+    }
+    String value = first == '"' ? MixPanelEventScanner.decodeString(bytes, start, end)
+      : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    return schema.getType() == Schema.Type.STRING ? value : convert(value, schema);
+  }
+
+  /**
+   * Decodes UTF-8 bytes of a single event, reused between events to avoid allocating decoder buffers.
+   */
+  private static class Utf8Reader extends Reader {
+    private byte[] bytes;
+    private int position;
+    private int end;
+    private char pendingLowSurrogate;
+
+    void reset(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.position = offset;
+      this.end = offset + length;
+      this.pendingLowSurrogate = 0;
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      int count = 0;
+      if (pendingLowSurrogate != 0) {
+        chars[offset + count++] = pendingLowSurrogate;
+        pendingLowSurrogate = 0;
+      }
+      while (count < length && position < end) {
+        int b = bytes[position] & 0xFF;
+        if (b < 0x80) {
+          chars[offset + count++] = (char) b;
+          position++;
+        } else if ((b & 0xE0) == 0xC0 && position + 1 < end) {
+          chars[offset + count++] = (char) (((b & 0x1F) << 6) | (bytes[position + 1] & 0x3F));
+          position += 2;
+        } else if ((b & 0xF0) == 0xE0 && position + 2 < end) {
+          chars[offset + count++] = (char) (((b & 0x0F) << 12) | ((bytes[position + 1] & 0x3F) << 6)
+            | (bytes[position + 2] & 0x3F));
+          position += 3;
+        } else if ((b & 0xF8) == 0xF0 && position + 3 < end) {
+          int codePoint = ((b & 0x07) << 18) | ((bytes[position + 1] & 0x3F) << 12)
+            | ((bytes[position + 2] & 0x3F) << 6) | (bytes[position + 3] & 0x3F);
+          position += 4;
+          chars[offset + count++] = Character.highSurrogate(codePoint);
+          if (count < length) {
+            chars[offset + count++] = Character.lowSurrogate(codePoint);
+          } else {
+            pendingLowSurrogate = Character.lowSurrogate(codePoint);
+          }
+        } else {
+          // malformed or truncated sequence
+          chars[offset + count++] = '\uFFFD';
+          position++;
+        }
+      }
+      return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public void close() {
+      // nothing to close
+    }
+  }
+}
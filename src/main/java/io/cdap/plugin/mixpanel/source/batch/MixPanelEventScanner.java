@@ -0,0 +1,235 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds values of event properties in raw event bytes without parsing json, for bookkeeping done on every exported
+ * event. Keys are matched without tracking nesting, which is sufficient for properties MixPanel always writes first,
+ * like event time. Also provides helpers for scanning json structure as bytes, which fail with
+ * {@link MalformedJsonException} on malformed structure.
+ */
+public class MixPanelEventScanner {
+  public static final long NOT_FOUND = -1;
+  private static final byte[] PROPERTIES_KEY = "\"properties\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] TIME_KEY = "\"time\"".getBytes(StandardCharsets.UTF_8);
+
+  private MixPanelEventScanner() {
+  }
+
+  /**
+   * Returns event time in epoch seconds, or {@link #NOT_FOUND} if event has no numeric time property.
+   */
+  public static long findTime(byte[] bytes, int start, int length) {
+    int end = start + length;
+    int properties = indexOfKey(bytes, start, end, PROPERTIES_KEY);
+    if (properties < 0) {
+      return NOT_FOUND;
+    }
+    int time = indexOfKey(bytes, properties + PROPERTIES_KEY.length, end, TIME_KEY);
+    if (time < 0) {
+      return NOT_FOUND;
+    }
+    int position = skipWhitespace(bytes, time + TIME_KEY.length, end);
+    if (position >= end || bytes[position] != ':') {
+      return NOT_FOUND;
+    }
+    position = skipWhitespace(bytes, position + 1, end);
+    long value = 0;
+    int digits = 0;
+    for (; position < end && bytes[position] >= '0' && bytes[position] <= '9'; position++, digits++) {
+      value = value * 10 + (bytes[position] - '0');
+    }
+    return digits == 0 || digits > 18 ? NOT_FOUND : value;
+  }
+
+  /**
+   * Returns position of quoted key, skipping occurrences which are escaped parts of string values.
+   */
+  private static int indexOfKey(byte[] bytes, int start, int end, byte[] key) {
+    for (int i = start; i <= end - key.length; i++) {
+      if (bytes[i] == '"' && (i == 0 || bytes[i - 1] != '\\') && regionMatches(bytes, i, key)) {
+        int next = skipWhitespace(bytes, i + key.length, end);
+        if (next < end && bytes[next] == ':') {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  private static boolean regionMatches(byte[] bytes, int offset, byte[] key) {
+    for (int i = 0; i < key.length; i++) {
+      if (bytes[offset + i] != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes quoted json string given by position of its opening quote and position after its closing quote.
+   */
+  static String decodeString(byte[] bytes, int start, int end) throws IOException {
+    int contentStart = start + 1;
+    int contentEnd = end - 1;
+    int escape = indexOf(bytes, contentStart, contentEnd, (byte) '\\');
+    if (escape < 0) {
+      return new String(bytes, contentStart, contentEnd - contentStart, StandardCharsets.UTF_8);
+    }
+    StringBuilder value = new StringBuilder(contentEnd - contentStart);
+    int segmentStart = contentStart;
+    while (escape >= 0) {
+      value.append(new String(bytes, segmentStart, escape - segmentStart, StandardCharsets.UTF_8));
+      byte escaped = bytes[escape + 1];
+      int escapeLength = 2;
+      switch (escaped) {
+        case 'u':
+          escapeLength = 6;
+          if (escape + escapeLength > contentEnd) {
+            throw new MalformedJsonException("Unterminated escape sequence at " + escape);
+          }
+          try {
+            value.append((char) Integer.parseInt(new String(bytes, escape + 2, 4, StandardCharsets.US_ASCII), 16));
+          } catch (NumberFormatException e) {
+            throw new MalformedJsonException("Invalid escape sequence at " + escape);
+          }
+          break;
+        case 'b':
+          value.append('\b');
+          break;
+        case 'f':
+          value.append('\f');
+          break;
+        case 'n':
+          value.append('\n');
+          break;
+        case 'r':
+          value.append('\r');
+          break;
+        case 't':
+          value.append('\t');
+          break;
+        default:
+          // quote, backslash and slash
+          value.append((char) escaped);
+      }
+      segmentStart = escape + escapeLength;
+      escape = indexOf(bytes, segmentStart, contentEnd, (byte) '\\');
+    }
+    value.append(new String(bytes, segmentStart, contentEnd - segmentStart, StandardCharsets.UTF_8));
+    return value.toString();
+  }
+
+  /**
+   * Returns position after value starting at given position.
+   */
+  static int skipValue(byte[] bytes, int position, int end) throws IOException {
+    if (position >= end) {
+      throw new MalformedJsonException("Expected value at " + position);
+    }
+    switch (bytes[position]) {
+      case '"':
+        return skipString(bytes, position, end);
+      case '{':
+      case '[':
+        int depth = 0;
+        for (int i = position; i < end; i++) {
+          byte b = bytes[i];
+          if (b == '"') {
+            i = skipString(bytes, i, end) - 1;
+          } else if (b == '{' || b == '[') {
+            depth++;
+          } else if ((b == '}' || b == ']') && --depth == 0) {
+            return i + 1;
+          }
+        }
+        throw new MalformedJsonException("Unterminated object or array at " + position);
+      default:
+        int i = position;
+        while (i < end && bytes[i] != ',' && bytes[i] != '}' && bytes[i] != ']' && !isWhitespace(bytes[i])) {
+          i++;
+        }
+        if (i == position) {
+          throw new MalformedJsonException("Expected value at " + position);
+        }
+        return i;
+    }
+  }
+
+  /**
+   * Returns position after quoted string starting at given position.
+   */
+  static int skipString(byte[] bytes, int position, int end) throws IOException {
+    if (position >= end || bytes[position] != '"') {
+      throw new MalformedJsonException("Expected string at " + position);
+    }
+    for (int i = position + 1; i < end; i++) {
+      if (bytes[i] == '\\') {
+        i++;
+      } else if (bytes[i] == '"') {
+        return i + 1;
+      }
+    }
+    throw new MalformedJsonException("Unterminated string at " + position);
+  }
+
+  /**
+   * Returns position after given character and following whitespace, failing if it is not the next character.
+   */
+  static int expect(byte[] bytes, int position, int end, char expected) throws IOException {
+    position = skipWhitespace(bytes, position, end);
+    if (position >= end || bytes[position] != expected) {
+      throw new MalformedJsonException(String.format("Expected '%s' at %d", expected, position));
+    }
+    return skipWhitespace(bytes, position + 1, end);
+  }
+
+  /**
+   * Returns position of the first non whitespace byte from given position.
+   */
+  static int skipWhitespace(byte[] bytes, int position, int end) {
+    while (position < end && isWhitespace(bytes[position])) {
+      position++;
+    }
+    return position;
+  }
+
+  static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+
+  /**
+   * Returns true if bytes from start to end are equal to given key.
+   */
+  static boolean keyEquals(byte[] bytes, int start, int end, byte[] key) {
+    return end - start == key.length && regionMatches(bytes, start, key);
+  }
+
+  static int indexOf(byte[] bytes, int start, int end, byte value) {
+    for (int i = start; i < end; i++) {
+      if (bytes[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
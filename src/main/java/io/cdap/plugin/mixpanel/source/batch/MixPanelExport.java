@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.hadoop.io.Text;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Export of events of a split, read by {@link MixPanelRecordReader}.
+ */
+public interface MixPanelExport extends Closeable {
+  /**
+   * Copies bytes of the next event into given text.
+   *
+   * @return false if there are no more events
+   */
+  boolean next(Text event) throws IOException;
+
+  /**
+   * Returns estimated fraction of the export read so far.
+   */
+  float getProgress();
+
+  /**
+   * Returns number of events read.
+   */
+  long getEvents();
+
+  /**
+   * Returns number of bytes received from MixPanel.
+   */
+  long getCompressedBytes();
+
+  /**
+   * Returns number of bytes of events after decompression.
+   */
+  long getUncompressedBytes();
+
+  /**
+   * Returns number of times export was requested again after its stream failed.
+   */
+  int getResumes();
+
+  /**
+   * Returns number of events dropped as duplicates of events read before export was resumed.
+   */
+  long getDroppedEvents();
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks position of consumed events in export stream, so interrupted export can be requested again from the time of
+ * the last consumed event. Events consumed at that time are remembered by hash and skipped when export is resumed.
+ * Resuming is only possible while the stream is ordered by event time, which is checked for every event.
+ */
+public class MixPanelExportCheckpoint {
+  static final int MAX_EVENTS_AT_LAST_TIME = 100000;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final Map<Long, Integer> eventsAtLastTime = new HashMap<>();
+  private final Map<Long, Integer> eventsToSkip = new HashMap<>();
+  private long lastTime = MixPanelEventScanner.NOT_FOUND;
+  private long events;
+  private boolean resumable = true;
+
+  /**
+   * Registers event read from stream.
+   *
+   * @return false if event was already consumed before export was resumed and must be skipped
+   */
+  public boolean accept(byte[] bytes, int start, int length) {
+    if (!resumable) {
+      events++;
+      return true;
+    }
+    long time = MixPanelEventScanner.findTime(bytes, start, length);
+    if (time == MixPanelEventScanner.NOT_FOUND || time < lastTime) {
+      resumable = false;
+      eventsAtLastTime.clear();
+      eventsToSkip.clear();
+      events++;
+      return true;
+    }
+    if (time > lastTime) {
+      lastTime = time;
+      eventsAtLastTime.clear();
+      eventsToSkip.clear();
+    }
+    long hash = hash(bytes, start, length);
+    Integer skipCount = eventsToSkip.get(hash);
+    if (skipCount != null) {
+      if (skipCount == 1) {
+        eventsToSkip.remove(hash);
+      } else {
+        eventsToSkip.put(hash, skipCount - 1);
+      }
+      return false;
+    }
+    eventsAtLastTime.merge(hash, 1, Integer::sum);
+    if (eventsAtLastTime.size() > MAX_EVENTS_AT_LAST_TIME) {
+      resumable = false;
+      eventsAtLastTime.clear();
+    }
+    events++;
+    return true;
+  }
+
+  /**
+   * Marks that export is requested again from the time of the last consumed event, so events consumed at that time
+   * are skipped once they are read again.
+   */
+  public void resume() {
+    eventsToSkip.clear();
+    eventsToSkip.putAll(eventsAtLastTime);
+  }
+
+  public boolean isResumable() {
+    return resumable;
+  }
+
+  /**
+   * Returns time of the last consumed event in epoch seconds, or {@link MixPanelEventScanner#NOT_FOUND} if no events
+   * were consumed.
+   */
+  public long getLastTime() {
+    return lastTime;
+  }
+
+  /**
+   * Returns number of consumed events.
+   */
+  public long getEvents() {
+    return events;
+  }
+
+  /**
+   * 64 bit FNV-1a hash, collisions of events within the same second are practically impossible.
+   */
+  private static long hash(byte[] bytes, int start, int length) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = start; i < start + length; i++) {
+      hash ^= bytes[i] & 0xFF;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.LinkedList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Single export stream of a split. If the stream fails, export is requested again from the time of the last consumed
+ * event, and events consumed before are skipped.
+ */
+public class MixPanelExportStream implements MixPanelExport {
+  private static final Logger LOG = LoggerFactory.getLogger(MixPanelExportStream.class);
+  private static final Gson GSON = new GsonBuilder().create();
+  // events read between publishing of metrics
+  private static final int METRICS_INTERVAL_EVENTS = 1024;
+  private final MixPanelExportCheckpoint checkpoint = new MixPanelExportCheckpoint();
+  private final MixPanelApi api;
+  private final MixPanelBatchSourceConfig config;
+  private final MixPanelSplit split;
+  private final MixPanelMetrics metrics;
+  private final long windowStart;
+  private final long windowEnd;
+  @Nullable
+  private final MixPanelEventFilter eventFilter;
+  private volatile MixPanelApi.RawEventsIterator eventsIterator;
+  private volatile boolean aborted;
+  private int resumes;
+  private boolean finished;
+  private long compressedBytes;
+  private long uncompressedBytes;
+  private long droppedEvents;
+  private long publishedEvents;
+  private long publishedCompressedBytes;
+  private long publishedUncompressedBytes;
+
+  /**
+   * @param metrics metrics of the stage read events are recorded to
+   */
+  public MixPanelExportStream(MixPanelApi api, MixPanelBatchSourceConfig config, MixPanelSplit split,
+                              MixPanelMetrics metrics) {
+    this.api = api;
+    this.config = config;
+    this.split = split;
+    this.metrics = metrics;
+    ZoneId zone = config.getTimeZone();
+    windowStart = split.getStartTime() != MixPanelSplit.UNBOUNDED
+      ? split.getStartTime() : LocalDate.parse(split.getFromDate()).atStartOfDay(zone).toEpochSecond();
+    windowEnd = split.getEndTime() != MixPanelSplit.UNBOUNDED
+      ? split.getEndTime() : LocalDate.parse(split.getToDate()).plusDays(1).atStartOfDay(zone).toEpochSecond();
+    eventFilter = MixPanelEventFilter.of(config);
+    eventsIterator = api.getRawEvents(getExportParameters(config, split));
+  }
+
+  private static List<NameValuePair> getExportParameters(MixPanelBatchSourceConfig config, MixPanelSplit split) {
+    List<NameValuePair> params = new LinkedList<>();
+    params.add(new BasicNameValuePair("from_date", split.getFromDate()));
+    params.add(new BasicNameValuePair("to_date", split.getToDate()));
+    List<String> events = split.getEvents().isEmpty() ? config.getEvents() : split.getEvents();
+    if (!events.isEmpty()) {
+      params.add(new BasicNameValuePair("event", GSON.toJson(events)));
+    }
+    String where = MixPanelRecordReader.getWhereExpression(config.getFilter(), split);
+    if (!where.isEmpty()) {
+      params.add(new BasicNameValuePair("where", where));
+    }
+    return params;
+  }
+
+  @Override
+  public boolean next(Text event) throws IOException {
+    while (true) {
+      boolean hasNext;
+      try {
+        hasNext = eventsIterator.next(event);
+      } catch (UncheckedIOException e) {
+        resume(e.getCause());
+        continue;
+      }
+      if (!hasNext) {
+        if (!finished) {
+          finished = true;
+          // Hadoop destroys the stage, which publishes its metrics, before it closes the reader
+          publishMetrics();
+        }
+        return false;
+      }
+      if (!checkpoint.accept(event.getBytes(), 0, event.getLength())) {
+        droppedEvents++;
+        metrics.recordsDropped.increment();
+        continue;
+      }
+      if (checkpoint.getEvents() - publishedEvents >= METRICS_INTERVAL_EVENTS) {
+        publishMetrics();
+      }
+      // filtered events still advance the checkpoint, so they are not read again on resume
+      if (eventFilter == null || eventFilter.accept(event.getBytes(), event.getLength())) {
+        return true;
+      }
+      metrics.eventsFiltered.increment();
+    }
+  }
+
+  private void resume(IOException cause) throws IOException {
+    if (aborted || !checkpoint.isResumable() || resumes >= config.getMaxRetries()) {
+      throw cause;
+    }
+    resumes++;
+    metrics.exportResumes.increment();
+    long lastTime = checkpoint.getLastTime();
+    LOG.warn("Export stream failed after {} events, requesting events since {} again: {}", checkpoint.getEvents(),
+             lastTime, cause.getMessage());
+    closeEventsIterator();
+    checkpoint.resume();
+    MixPanelSplit resumedSplit = lastTime == MixPanelEventScanner.NOT_FOUND ? split : split.resumeFrom(lastTime);
+    eventsIterator = api.getRawEvents(getExportParameters(config, resumedSplit));
+    if (aborted) {
+      // aborted while the request was sent
+      eventsIterator.abort();
+    }
+  }
+
+  private void closeEventsIterator() {
+    compressedBytes += eventsIterator.getCompressedBytes();
+    uncompressedBytes += eventsIterator.getUncompressedBytes();
+    IOUtils.closeQuietly(eventsIterator);
+    eventsIterator = null;
+  }
+
+  /**
+   * Records events and bytes read since metrics were published last time.
+   */
+  private void publishMetrics() {
+    long totalCompressedBytes = getCompressedBytes();
+    long totalUncompressedBytes = getUncompressedBytes();
+    metrics.eventsRead.add(checkpoint.getEvents() - publishedEvents);
+    metrics.bytesReceived.add(totalCompressedBytes - publishedCompressedBytes);
+    metrics.bytesDecompressed.add(totalUncompressedBytes - publishedUncompressedBytes);
+    publishedEvents = checkpoint.getEvents();
+    publishedCompressedBytes = totalCompressedBytes;
+    publishedUncompressedBytes = totalUncompressedBytes;
+  }
+
+  /**
+   * Estimates progress from number of received bytes if response length is known, otherwise from time of the last
+   * read event within time window of the split.
+   */
+  @Override
+  public float getProgress() {
+    if (finished) {
+      return 1;
+    }
+    MixPanelApi.RawEventsIterator iterator = eventsIterator;
+    if (iterator != null && resumes == 0 && iterator.getContentLength() > 0) {
+      return MixPanelRecordReader.getProgress(iterator.getCompressedBytes(), 0, iterator.getContentLength());
+    }
+    long lastTime = checkpoint.getLastTime();
+    if (!checkpoint.isResumable() || lastTime == MixPanelEventScanner.NOT_FOUND) {
+      // stream is not ordered by time
+      return 0;
+    }
+    return MixPanelRecordReader.getProgress(lastTime, windowStart, windowEnd);
+  }
+
+  @Override
+  public long getEvents() {
+    return checkpoint.getEvents();
+  }
+
+  @Override
+  public long getCompressedBytes() {
+    MixPanelApi.RawEventsIterator iterator = eventsIterator;
+    return iterator == null ? compressedBytes : compressedBytes + iterator.getCompressedBytes();
+  }
+
+  @Override
+  public long getUncompressedBytes() {
+    MixPanelApi.RawEventsIterator iterator = eventsIterator;
+    return iterator == null ? uncompressedBytes : uncompressedBytes + iterator.getUncompressedBytes();
+  }
+
+  @Override
+  public int getResumes() {
+    return resumes;
+  }
+
+  @Override
+  public long getDroppedEvents() {
+    return droppedEvents;
+  }
+
+  /**
+   * Aborts the export from another thread, so the thread reading it fails instead of waiting for the rest of export.
+   */
+  public void abort() {
+    aborted = true;
+    MixPanelApi.RawEventsIterator iterator = eventsIterator;
+    if (iterator == null) {
+      return;
+    }
+    try {
+      iterator.abort();
+    } catch (IOException e) {
+      LOG.debug("Failed to abort export stream.", e);
+    }
+  }
+
+  /**
+   * Publishes remaining metrics and releases the connection, or aborts it if export was not read to the end.
+   */
+  @Override
+  public void close() throws IOException {
+    publishMetrics();
+    if (eventsIterator != null) {
+      compressedBytes += eventsIterator.getCompressedBytes();
+      uncompressedBytes += eventsIterator.getUncompressedBytes();
+      eventsIterator.close();
+      eventsIterator = null;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import io.cdap.cdap.api.data.schema.Schema;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Maps raw MixPanel property names to fields of output schema. Mapping of names known from schema discovery is
+ * computed once, other names are escaped when seen and remembered in a bounded LRU cache, so per event lookups run
+ * regexes only for names which are neither discovered nor recently seen. Mapping limited to listed properties maps
+ * only their exact names, which are also matched as raw bytes.
+ */
+public class MixPanelFieldMapping {
+  static final int MAX_CACHED_NAMES = 10000;
+
+  private final Schema schema;
+  private final Map<String, Schema.Field> knownFields;
+  private final Map<String, Optional<Schema.Field>> cachedFields = Collections.synchronizedMap(
+    new LinkedHashMap<String, Optional<Schema.Field>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Optional<Schema.Field>> eldest) {
+        return size() > MAX_CACHED_NAMES;
+      }
+    });
+  private final boolean projected;
+  // open addressing table of UTF-8 encoded names of projected properties, indexed by their hash
+  private final byte[][] projectedNames;
+  private final Schema.Field[] projectedFields;
+
+  public MixPanelFieldMapping(Schema schema) {
+    this(schema, Collections.emptyList());
+  }
+
+  /**
+   * @param schema output schema
+   * @param propertyNames raw property names seen during schema discovery
+   */
+  public MixPanelFieldMapping(Schema schema, Collection<String> propertyNames) {
+    this(schema, propertyNames, false);
+  }
+
+  /**
+   * @param projected whether only given property names and names of default fields are mapped
+   */
+  private MixPanelFieldMapping(Schema schema, Collection<String> propertyNames, boolean projected) {
+    this.schema = schema;
+    this.projected = projected;
+    Map<String, Schema.Field> fields = new HashMap<>();
+    for (Schema.Field field : Objects.requireNonNull(schema.getFields())) {
+      if (!projected || field.getName().equals(MixPanelSchemaHelper.DISTINCT_ID_FIELD)
+        || field.getName().equals(MixPanelSchemaHelper.TIME_FIELD)) {
+        fields.put(field.getName(), field);
+      }
+    }
+    for (String propertyName : propertyNames) {
+      Schema.Field field = schema.getField(MixPanelSchemaHelper.escapeFieldName(propertyName));
+      if (field != null) {
+        fields.put(propertyName, field);
+      }
+    }
+    Schema.Field eventNameField = schema.getField(MixPanelSchemaHelper.EVENT_NAME_FIELD);
+    if (eventNameField != null) {
+      fields.put(MixPanelSchemaHelper.EVENT_NAME_FIELD_DESC, eventNameField);
+    }
+    this.knownFields = fields;
+
+    if (!projected) {
+      projectedNames = null;
+      projectedFields = null;
+      return;
+    }
+    projectedNames = new byte[Integer.highestOneBit(Math.max(1, fields.size()) * 2) * 2][];
+    projectedFields = new Schema.Field[projectedNames.length];
+    int mask = projectedNames.length - 1;
+    for (Map.Entry<String, Schema.Field> field : fields.entrySet()) {
+      byte[] name = field.getKey().getBytes(StandardCharsets.UTF_8);
+      int index = hash(name, 0, name.length) & mask;
+      while (projectedNames[index] != null) {
+        index = (index + 1) & mask;
+      }
+      projectedNames[index] = name;
+      projectedFields[index] = field.getValue();
+    }
+  }
+
+  /**
+   * Returns mapping of given properties only. Other properties are not mapped, even if their names are escaped to
+   * names of fields.
+   *
+   * @param schema output schema limited to given properties
+   * @param propertyNames raw names of properties
+   */
+  public static MixPanelFieldMapping forProperties(Schema schema, Collection<String> propertyNames) {
+    return new MixPanelFieldMapping(schema, propertyNames, true);
+  }
+
+  /**
+   * Returns mapping to output schema, limited to properties listed by config if there are any.
+   *
+   * @param propertyNames raw property names seen during schema discovery, mapped upfront if not limited to listed
+   */
+  public static MixPanelFieldMapping of(MixPanelBatchSourceConfig config, Schema schema,
+                                        Collection<String> propertyNames) {
+    List<String> properties = config.getEventProperties();
+    return properties.isEmpty() ? new MixPanelFieldMapping(schema, propertyNames) : forProperties(schema, properties);
+  }
+
+  /**
+   * Returns true if mapping is limited to listed properties, see {@link #getField(byte[], int, int)}.
+   */
+  public boolean isProjected() {
+    return projected;
+  }
+
+  public Schema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Returns field for given raw property name, or null if property is not included to schema.
+   */
+  @Nullable
+  public Schema.Field getField(String propertyName) {
+    Schema.Field field = knownFields.get(propertyName);
+    if (field != null) {
+      return field;
+    }
+    if (projected) {
+      return null;
+    }
+    Optional<Schema.Field> cachedField = cachedFields.get(propertyName);
+    if (cachedField != null) {
+      return cachedField.orElse(null);
+    }
+    field = propertyName.isEmpty() ? null : schema.getField(MixPanelSchemaHelper.escapeFieldName(propertyName));
+    cachedFields.put(propertyName, Optional.ofNullable(field));
+    return field;
+  }
+
+  /**
+   * Returns field for raw property name given as UTF-8 bytes without json escapes, or null if property is not
+   * included to schema. Names are matched without decoding, so only mappings limited to listed properties support it.
+   */
+  @Nullable
+  public Schema.Field getField(byte[] bytes, int start, int length) {
+    if (!projected) {
+      throw new IllegalStateException("Property names can be matched as bytes only by projected mapping.");
+    }
+    int mask = projectedNames.length - 1;
+    for (int index = hash(bytes, start, length) & mask; projectedNames[index] != null; index = (index + 1) & mask) {
+      if (regionEquals(projectedNames[index], bytes, start, length)) {
+        return projectedFields[index];
+      }
+    }
+    return null;
+  }
+
+  private static int hash(byte[] bytes, int start, int length) {
+    int hash = 0;
+    for (int i = start; i < start + length; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean regionEquals(byte[] name, byte[] bytes, int start, int length) {
+    if (name.length != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name[i] != bytes[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
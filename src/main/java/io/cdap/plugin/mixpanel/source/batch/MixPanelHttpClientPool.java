@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pooled HTTP clients shared by all {@link MixPanelApi} instances of the JVM. Clients are created once per distinct
+ * {@link Settings}, so readers of splits and schema discovery reuse kept alive connections and TLS sessions instead of
+ * connecting on every request. Idle and expired connections are evicted by daemon threads of the client. Every user,
+ * i.e. every api instance and stage, {@link #retain(Settings)}s client while it uses it and
+ * {@link #release(Settings)}s it afterwards. Client released by all its users is closed, which stops its evictor
+ * thread and closes its connections, so neither outlives the runs of the plugin in long running JVMs.
+ */
+public class MixPanelHttpClientPool {
+  private static final Logger LOG = LoggerFactory.getLogger(MixPanelHttpClientPool.class);
+  private static final Map<Settings, PooledClient> CLIENTS = new HashMap<>();
+
+  /**
+   * Registers user of client with given settings, client is kept open until all its users release it.
+   *
+   * @return client with given settings
+   */
+  public static synchronized CloseableHttpClient retain(Settings settings) {
+    PooledClient pooledClient = CLIENTS.computeIfAbsent(settings, PooledClient::new);
+    pooledClient.users++;
+    return pooledClient.client;
+  }
+
+  /**
+   * Releases client retained by {@link #retain(Settings)}, and closes it if it is not used anymore.
+   */
+  public static synchronized void release(Settings settings) {
+    PooledClient pooledClient = CLIENTS.get(settings);
+    if (pooledClient == null || --pooledClient.users > 0) {
+      return;
+    }
+    CLIENTS.remove(settings);
+    try {
+      pooledClient.client.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close MixPanel HTTP client.", e);
+    }
+  }
+
+  private static CloseableHttpClient createClient(Settings settings) {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(settings.maxConnections);
+    connectionManager.setDefaultMaxPerRoute(settings.maxConnections);
+    connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                                               .setTcpNoDelay(true)
+                                               .setSoKeepAlive(true)
+                                               .setRcvBufSize(settings.socketBufferSize)
+                                               .setSndBufSize(settings.socketBufferSize)
+                                               .build());
+    connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
+                                                   .setBufferSize(settings.socketBufferSize)
+                                                   .build());
+    // validate connections which were idle for a while, server may have closed them
+    connectionManager.setValidateAfterInactivity(1000);
+
+    RequestConfig requestConfig = RequestConfig.custom()
+      .setConnectTimeout(settings.connectTimeoutMillis)
+      .setConnectionRequestTimeout(settings.socketTimeoutMillis)
+      .setSocketTimeout(settings.socketTimeoutMillis)
+      .build();
+
+    // compressed responses are decompressed by readers, which tune buffers and count bytes
+    return HttpClients.custom()
+      .disableContentCompression()
+      .setConnectionManager(connectionManager)
+      .setDefaultRequestConfig(requestConfig)
+      .setKeepAliveStrategy(getKeepAliveStrategy(settings.keepAliveMillis))
+      .evictExpiredConnections()
+      .evictIdleConnections(settings.keepAliveMillis, TimeUnit.MILLISECONDS)
+      .build();
+  }
+
+  /**
+   * Keeps connections alive for as long as server allows, but no longer than given time.
+   */
+  private static ConnectionKeepAliveStrategy getKeepAliveStrategy(long keepAliveMillis) {
+    return (response, context) -> {
+      long serverKeepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return serverKeepAliveMillis > 0 ? Math.min(serverKeepAliveMillis, keepAliveMillis) : keepAliveMillis;
+    };
+  }
+
+  /**
+   * Client together with number of its users.
+   */
+  private static class PooledClient {
+    private final CloseableHttpClient client;
+    private int users;
+
+    private PooledClient(Settings settings) {
+      this.client = createClient(settings);
+    }
+  }
+
+  /**
+   * Settings of pooled client.
+   */
+  public static class Settings {
+    public static final int DEFAULT_MAX_CONNECTIONS = 16;
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_SOCKET_TIMEOUT_SECONDS = 300;
+    public static final int DEFAULT_KEEP_ALIVE_SECONDS = 60;
+    public static final int DEFAULT_SOCKET_BUFFER_SIZE = 64 * 1024;
+
+    private final int maxConnections;
+    private final int connectTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final long keepAliveMillis;
+    private final int socketBufferSize;
+
+    /**
+     * @param maxConnections maximum number of concurrent requests
+     * @param connectTimeoutSeconds timeout of establishing connection
+     * @param socketTimeoutSeconds timeout of waiting for pooled connection and for response data
+     * @param keepAliveSeconds maximum time idle connection is kept in pool
+     * @param socketBufferSize size of socket send and receive buffers in bytes
+     */
+    public Settings(int maxConnections, int connectTimeoutSeconds, int socketTimeoutSeconds, int keepAliveSeconds,
+                    int socketBufferSize) {
+      this.maxConnections = maxConnections;
+      this.connectTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(connectTimeoutSeconds);
+      this.socketTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(socketTimeoutSeconds);
+      this.keepAliveMillis = TimeUnit.SECONDS.toMillis(keepAliveSeconds);
+      this.socketBufferSize = socketBufferSize;
+    }
+
+    public static Settings getDefault() {
+      return new Settings(DEFAULT_MAX_CONNECTIONS, DEFAULT_CONNECT_TIMEOUT_SECONDS, DEFAULT_SOCKET_TIMEOUT_SECONDS,
+                          DEFAULT_KEEP_ALIVE_SECONDS, DEFAULT_SOCKET_BUFFER_SIZE);
+    }
+
+    public static Settings fromConfig(MixPanelBatchSourceConfig config) {
+      return new Settings(config.getMaxConnections(), config.getConnectTimeoutSeconds(),
+                          config.getRequestTimeoutSeconds(), config.getKeepAliveSeconds(),
+                          config.getSocketBufferSize());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Settings settings = (Settings) o;
+      return maxConnections == settings.maxConnections
+        && connectTimeoutMillis == settings.connectTimeoutMillis
+        && socketTimeoutMillis == settings.socketTimeoutMillis
+        && keepAliveMillis == settings.keepAliveMillis
+        && socketBufferSize == settings.socketBufferSize;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(maxConnections, connectTimeoutMillis, socketTimeoutMillis, keepAliveMillis,
+                          socketBufferSize);
+    }
+  }
+}
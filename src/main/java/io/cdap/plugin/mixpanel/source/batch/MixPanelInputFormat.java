@@ -16,26 +16,63 @@
 
 package io.cdap.plugin.mixpanel.source.batch;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
- * InputFormat for mapreduce job, which provides a single split of data.
+ * InputFormat for mapreduce job, which splits export date range into {@link MixPanelSplit}s.
  */
 public class MixPanelInputFormat extends InputFormat {
+  private static final Gson GSON = new GsonBuilder().create();
+
   @Override
   public List<InputSplit> getSplits(JobContext jobContext) {
-    return Collections.singletonList(new NoOpMixPanelSplit());
+    Configuration conf = jobContext.getConfiguration();
+    MixPanelBatchSourceConfig config = GSON.fromJson(conf.get(MixPanelInputFormatProvider.PROPERTY_CONFIG_JSON),
+                                                     MixPanelBatchSourceConfig.class);
+    List<MixPanelSplit> splits;
+    if (config.adaptiveSplits()) {
+      try (MixPanelApi api = new MixPanelApi(config)) {
+        splits = new MixPanelSplitPlanner(config, api).getSplits();
+      }
+    } else {
+      splits = new MixPanelSplitPlanner(config, null).getSplits();
+    }
+
+    String startTime = conf.get(MixPanelInputFormatProvider.PROPERTY_START_TIME);
+    String endTime = conf.get(MixPanelInputFormatProvider.PROPERTY_END_TIME);
+    if (startTime != null && endTime != null) {
+      // incremental run, splits of first and last days are narrowed to the watermark window
+      splits = splits.stream()
+        .map(split -> split.withinWindow(Long.parseLong(startTime), Long.parseLong(endTime)))
+        .filter(split -> !split.isEmptyWindow())
+        .collect(Collectors.toList());
+    }
+    return new ArrayList<>(splits);
   }
 
+  /**
+   * Creates reader of raw events, or of records parsed on a pool of threads if schema is generated by events and
+   * parser threads are set.
+   */
   @Override
   public RecordReader createRecordReader(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) {
+    MixPanelBatchSourceConfig config = GSON.fromJson(
+      taskAttemptContext.getConfiguration().get(MixPanelInputFormatProvider.PROPERTY_CONFIG_JSON),
+      MixPanelBatchSourceConfig.class);
+    if (config.schemaByEvents() && config.getParserThreads() > 0) {
+      return new MixPanelParsingRecordReader(new MixPanelRecordReader(), config.getParserThreads());
+    }
     return new MixPanelRecordReader();
   }
 }
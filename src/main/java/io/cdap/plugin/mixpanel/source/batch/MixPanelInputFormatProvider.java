@@ -19,23 +19,53 @@ package io.cdap.plugin.mixpanel.source.batch;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import io.cdap.cdap.api.data.batch.InputFormatProvider;
+import io.cdap.cdap.api.data.schema.Schema;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * InputFormatProvider used by cdap to provide configurations to mapreduce job
  */
 public class MixPanelInputFormatProvider implements InputFormatProvider {
   public static final String PROPERTY_CONFIG_JSON = "cdap.mixpanel.config";
+  public static final String PROPERTY_SCHEMA = "cdap.mixpanel.schema";
+  public static final String PROPERTY_PROPERTY_NAMES = "cdap.mixpanel.property.names";
+  public static final String PROPERTY_STAGE_KEY = "cdap.mixpanel.stage.key";
+  public static final String PROPERTY_START_TIME = "cdap.mixpanel.start.time";
+  public static final String PROPERTY_END_TIME = "cdap.mixpanel.end.time";
   private static final Gson gson = new GsonBuilder().create();
   private final Map<String, String> conf;
 
 
   MixPanelInputFormatProvider(MixPanelBatchSourceConfig config) {
+    this(config, null, null, null);
+  }
+
+  /**
+   * @param watermark window of incremental run, all splits are narrowed to it
+   * @param outputSchema schema of the stage, resolved from config if not known
+   * @param stageKey key of the stage readers record metrics for, see {@link MixPanelMetrics#getStageKey}
+   */
+  MixPanelInputFormatProvider(MixPanelBatchSourceConfig config, @Nullable MixPanelWatermark watermark,
+                              @Nullable Schema outputSchema, @Nullable String stageKey) {
     this.conf = Collections.unmodifiableMap(new HashMap<String, String>() {{
       put(PROPERTY_CONFIG_JSON, gson.toJson(config));
+      // schema is not serialized with config, ship resolved one so tasks never generate it again
+      put(PROPERTY_SCHEMA, (outputSchema == null ? config.getSchema() : outputSchema).toString());
+      // raw names of discovered properties, so tasks map them to fields without escaping
+      if (config.schemaByEvents() && config.getEventProperties().isEmpty()) {
+        put(PROPERTY_PROPERTY_NAMES, gson.toJson(config.getPropertyNames()));
+      }
+      if (stageKey != null) {
+        put(PROPERTY_STAGE_KEY, stageKey);
+      }
+      if (watermark != null) {
+        put(PROPERTY_START_TIME, Long.toString(watermark.getStartTime()));
+        put(PROPERTY_END_TIME, Long.toString(watermark.getEndTime()));
+      }
     }});
   }
 
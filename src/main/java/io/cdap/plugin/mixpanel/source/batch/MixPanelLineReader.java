@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads newline delimited UTF-8 records from a stream. Lines are found by scanning bytes of a reusable buffer and are
+ * exposed as slices of that buffer, so they can be consumed without decoding. Empty lines are skipped.
+ */
+public class MixPanelLineReader implements Closeable {
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  private final InputStream inputStream;
+  private byte[] buffer;
+  // unread data is buffer[dataStart, dataEnd), bytes before scanPosition are known to contain no newline
+  private int dataStart;
+  private int dataEnd;
+  private int scanPosition;
+  private int lineStart;
+  private int lineLength;
+  private boolean endOfStream;
+
+  public MixPanelLineReader(InputStream inputStream) {
+    this(inputStream, DEFAULT_BUFFER_SIZE);
+  }
+
+  public MixPanelLineReader(InputStream inputStream, int bufferSize) {
+    this.inputStream = inputStream;
+    this.buffer = new byte[bufferSize];
+  }
+
+  /**
+   * Advances to the next non empty line.
+   *
+   * @return false if stream has no more lines
+   */
+  public boolean nextLine() throws IOException {
+    while (true) {
+      int newline = indexOfNewline();
+      if (newline >= 0) {
+        if (setLine(dataStart, newline)) {
+          return true;
+        }
+        continue;
+      }
+      if (endOfStream) {
+        return dataStart < dataEnd && setLine(dataStart, dataEnd);
+      }
+      fill();
+    }
+  }
+
+  /**
+   * Returns buffer which holds current line. Buffer content is only valid until next call of {@link #nextLine()}.
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  public int getLineStart() {
+    return lineStart;
+  }
+
+  public int getLineLength() {
+    return lineLength;
+  }
+
+  public String getLine() {
+    return new String(buffer, lineStart, lineLength, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    inputStream.close();
+  }
+
+  private int indexOfNewline() {
+    for (int i = scanPosition; i < dataEnd; i++) {
+      if (buffer[i] == '\n') {
+        return i;
+      }
+    }
+    scanPosition = dataEnd;
+    return -1;
+  }
+
+  /**
+   * Marks buffer[start, end) as current line, stripping trailing carriage return.
+   *
+   * @return false if line is empty
+   */
+  private boolean setLine(int start, int end) {
+    dataStart = Math.min(end + 1, dataEnd);
+    scanPosition = dataStart;
+    if (end > start && buffer[end - 1] == '\r') {
+      end--;
+    }
+    lineStart = start;
+    lineLength = end - start;
+    return lineLength > 0;
+  }
+
+  private void fill() throws IOException {
+    if (dataEnd == buffer.length) {
+      if (dataStart > 0) {
+        int length = dataEnd - dataStart;
+        System.arraycopy(buffer, dataStart, buffer, 0, length);
+        scanPosition -= dataStart;
+        dataStart = 0;
+        dataEnd = length;
+      } else {
+        // line does not fit into buffer
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    }
+    int read = inputStream.read(buffer, dataEnd, buffer.length - dataEnd);
+    if (read < 0) {
+      endOfStream = true;
+    } else {
+      dataEnd += read;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import io.cdap.cdap.api.metrics.Metrics;
+import io.cdap.cdap.etl.api.StageContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a MixPanel source stage. Record readers have no access to stage metrics, so readers and instances of the
+ * same stage running in a JVM share one instance, see {@link #retain(String)}, which is published by the stage.
+ * Counters are drained when published, so several instances of the stage never publish the same increment twice, and
+ * other stages of the JVM never publish it at all.
+ */
+public final class MixPanelMetrics {
+  private static final Map<String, SharedMetrics> STAGES = new HashMap<>();
+  private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  public static final String RECORDS_PER_SECOND = "records.per.second";
+
+  private final List<Counter> counters = new ArrayList<>();
+  private final List<Histogram> histograms = new ArrayList<>();
+
+  public final Counter requests = counter("requests", 1);
+  public final Counter requestRetries = counter("request.retries", 1);
+  public final Counter requestsThrottled = counter("requests.throttled", 1);
+  public final Counter bytesReceived = counter("bytes.received", 1);
+  public final Counter bytesDecompressed = counter("bytes.decompressed", 1);
+  public final Counter eventsRead = counter("events.read", 1);
+  public final Counter exportResumes = counter("export.resumes", 1);
+  public final Counter recordsDropped = counter("records.dropped", 1);
+  public final Counter eventsFiltered = counter("events.filtered", 1);
+  public final Counter valuesDropped = counter("values.dropped", 1);
+  public final Counter parseNanos = counter("parse.time.ms", NANOS_PER_MILLI);
+  public final Counter mappingNanos = counter("mapping.time.ms", NANOS_PER_MILLI);
+  public final Counter prefetchEmptyNanos = counter("prefetch.empty.ms", NANOS_PER_MILLI);
+  public final Counter prefetchFullNanos = counter("prefetch.full.ms", NANOS_PER_MILLI);
+  public final Counter streamsEmptyNanos = counter("streams.empty.ms", NANOS_PER_MILLI);
+  public final Histogram requestLatency = histogram("request.latency");
+  public final Histogram timeToFirstByte = histogram("export.first.byte");
+
+  private Counter counter(String name, long unit) {
+    Counter counter = new Counter(name, unit);
+    counters.add(counter);
+    return counter;
+  }
+
+  private Histogram histogram(String name) {
+    Histogram histogram = new Histogram(name);
+    histograms.add(histogram);
+    return histogram;
+  }
+
+  /**
+   * Returns key of the stage run, which identifies its metrics in JVMs of the run.
+   */
+  public static String getStageKey(StageContext context) {
+    return String.join(":", context.getNamespace(), context.getPipelineName(), context.getStageName(),
+                       Long.toString(context.getLogicalStartTime()));
+  }
+
+  /**
+   * Returns metrics of given stage, shared by its readers and stage instances of the JVM until all of them release it.
+   */
+  public static synchronized MixPanelMetrics retain(String stageKey) {
+    SharedMetrics sharedMetrics = STAGES.computeIfAbsent(stageKey, key -> new SharedMetrics());
+    sharedMetrics.users++;
+    return sharedMetrics.metrics;
+  }
+
+  public static synchronized void release(String stageKey) {
+    SharedMetrics sharedMetrics = STAGES.get(stageKey);
+    if (sharedMetrics != null && --sharedMetrics.users <= 0) {
+      STAGES.remove(stageKey);
+    }
+  }
+
+  /**
+   * Publishes increments recorded since the previous call.
+   */
+  public void publish(Metrics metrics) {
+    for (Counter counter : counters) {
+      counter.publish(metrics);
+    }
+    for (Histogram histogram : histograms) {
+      histogram.publish(metrics);
+    }
+  }
+
+  private static void count(Metrics metrics, String name, long delta) {
+    // metrics api takes int deltas
+    for (; delta > Integer.MAX_VALUE; delta -= Integer.MAX_VALUE) {
+      metrics.count(name, Integer.MAX_VALUE);
+    }
+    if (delta > 0) {
+      metrics.count(name, (int) delta);
+    }
+  }
+
+  /**
+   * Monotonic counter.
+   */
+  public static final class Counter {
+    private final String name;
+    private final long unit;
+    private final LongAdder value = new LongAdder();
+    private long remainder;
+
+    /**
+     * @param unit value recorded per unit of published metric, e.g. nanoseconds per published millisecond
+     */
+    private Counter(String name, long unit) {
+      this.name = name;
+      this.unit = unit;
+    }
+
+    public void increment() {
+      value.increment();
+    }
+
+    public void add(long delta) {
+      value.add(delta);
+    }
+
+    private synchronized void publish(Metrics metrics) {
+      // fractions of unit are carried over to the next publish
+      long total = remainder + value.sumThenReset();
+      remainder = total % unit;
+      count(metrics, name, total / unit);
+    }
+  }
+
+  /**
+   * Latency histogram published as count of samples, their total in milliseconds and count of samples within each
+   * bucket, e.g. {@code request.latency.le.250ms} counts samples from 100 to 250 milliseconds.
+   */
+  public static final class Histogram {
+    static final long[] BUCKETS_MILLIS = {100, 250, 500, 1000, 2500, 5000, 10000, 30000, Long.MAX_VALUE};
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMillis = new LongAdder();
+    private final LongAdder[] buckets = new LongAdder[BUCKETS_MILLIS.length];
+
+    private Histogram(String name) {
+      this.name = name;
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void recordNanos(long nanos) {
+      long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+      count.increment();
+      totalMillis.add(millis);
+      buckets[getBucket(millis)].increment();
+    }
+
+    static int getBucket(long millis) {
+      int bucket = 0;
+      while (millis > BUCKETS_MILLIS[bucket]) {
+        bucket++;
+      }
+      return bucket;
+    }
+
+    static String getBucketName(int bucket) {
+      return BUCKETS_MILLIS[bucket] == Long.MAX_VALUE ? "inf" : BUCKETS_MILLIS[bucket] + "ms";
+    }
+
+    private void publish(Metrics metrics) {
+      count(metrics, name + ".count", count.sumThenReset());
+      count(metrics, name + ".total.ms", totalMillis.sumThenReset());
+      for (int i = 0; i < buckets.length; i++) {
+        count(metrics, name + ".le." + getBucketName(i), buckets[i].sumThenReset());
+      }
+    }
+  }
+
+  /**
+   * Metrics of a stage with count of their users.
+   */
+  private static class SharedMetrics {
+    private final MixPanelMetrics metrics = new MixPanelMetrics();
+    private int users;
+  }
+}
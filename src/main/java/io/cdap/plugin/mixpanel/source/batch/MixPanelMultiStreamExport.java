@@ -0,0 +1,322 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.hadoop.io.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Export of a split by several concurrent streams, each exporting another window of the split, so a single reader can
+ * use more bandwidth than a single export stream gets. Windows are downloaded in order by a pool of threads, which
+ * pass events in batches through bounded queues, so memory is bounded by the buffer size. Events are read as soon as
+ * any stream receives them, or window by window if order of export should be kept, in which case downloads run at
+ * most as many windows ahead of the read one as there are streams.
+ */
+public class MixPanelMultiStreamExport implements MixPanelExport {
+  // windows per stream if window length is not configured, enough to balance streams without sending many requests
+  static final int WINDOWS_PER_STREAM = 2;
+  private static final long MINUTES_PER_DAY = TimeUnit.DAYS.toMinutes(1);
+  private static final Logger LOG = LoggerFactory.getLogger(MixPanelMultiStreamExport.class);
+  private static final AtomicInteger THREADS = new AtomicInteger();
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final MixPanelApi api;
+  private final MixPanelBatchSourceConfig config;
+  private final MixPanelMetrics metrics;
+  private final List<MixPanelSplit> windows;
+  private final List<BlockingQueue<Batch>> queues;
+  private final boolean ordered;
+  private final int streamsCount;
+  private final ExecutorService executor;
+  private final Set<MixPanelExportStream> streams = ConcurrentHashMap.newKeySet();
+  private final AtomicLong compressedBytes = new AtomicLong();
+  private final AtomicLong uncompressedBytes = new AtomicLong();
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private final AtomicInteger resumes = new AtomicInteger();
+  private volatile boolean closed;
+  private Batch batch;
+  private int position;
+  private int window;
+  private int finishedWindows;
+  private int submittedWindows;
+  private long events;
+
+  /**
+   * @param windows windows of the split exported by separate streams, see {@link #getWindows}
+   * @param streams maximum number of concurrent streams
+   * @param bufferSize maximum number of bytes of events received ahead of processing
+   * @param ordered whether events are read window by window
+   * @param metrics metrics of the stage read events are recorded to
+   */
+  public MixPanelMultiStreamExport(MixPanelApi api, MixPanelBatchSourceConfig config, List<MixPanelSplit> windows,
+                                   int streams, int bufferSize, boolean ordered, MixPanelMetrics metrics) {
+    this.api = api;
+    this.metrics = metrics;
+    this.config = config;
+    this.windows = windows;
+    this.ordered = ordered;
+    this.streamsCount = streams;
+    int batches = Math.max(streams, bufferSize / MixPanelEventBatch.DEFAULT_SIZE);
+    queues = new ArrayList<>(windows.size());
+    if (ordered) {
+      // every window has its own queue, so streams ahead of the read window do not block the read one
+      for (int i = 0; i < windows.size(); i++) {
+        queues.add(new ArrayBlockingQueue<>(Math.max(2, batches / streams)));
+      }
+    } else {
+      BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(batches);
+      for (int i = 0; i < windows.size(); i++) {
+        queues.add(queue);
+      }
+    }
+    executor = Executors.newFixedThreadPool(Math.min(streams, windows.size()), runnable -> {
+      Thread thread = new Thread(runnable, "mixpanel-stream-" + THREADS.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    submitWindows();
+  }
+
+  /**
+   * Submits download of all windows, or of windows up to number of streams ahead of the read window if ordered.
+   */
+  private void submitWindows() {
+    int lastWindow = ordered ? Math.min(windows.size(), window + streamsCount) : windows.size();
+    for (; submittedWindows < lastWindow; submittedWindows++) {
+      int streamWindow = submittedWindows;
+      executor.execute(() -> download(streamWindow));
+    }
+  }
+
+  /**
+   * Divides the split into windows of given length aligned with days of the configured time zone, so every window
+   * exports a single date. First and last windows of the day are left open, as in {@link MixPanelSplitPlanner}, so
+   * events which MixPanel exports for the date but fall outside of the day in configured time zone are still read
+   * exactly once.
+   */
+  public static List<MixPanelSplit> getWindows(MixPanelSplit split, ZoneId zone, int windowMinutes) {
+    long windowSeconds = TimeUnit.MINUTES.toSeconds(windowMinutes);
+    List<MixPanelSplit> windows = new ArrayList<>();
+    LocalDate toDate = LocalDate.parse(split.getToDate());
+    for (LocalDate date = LocalDate.parse(split.getFromDate()); !date.isAfter(toDate); date = date.plusDays(1)) {
+      MixPanelSplit dateSplit = split.forDate(date.toString());
+      long dayStart = date.atStartOfDay(zone).toEpochSecond();
+      long dayEnd = date.plusDays(1).atStartOfDay(zone).toEpochSecond();
+      for (long start = dayStart; start < dayEnd; start += windowSeconds) {
+        long end = start + windowSeconds;
+        MixPanelSplit window = dateSplit.withinWindow(start == dayStart ? MixPanelSplit.UNBOUNDED : start,
+                                                      end >= dayEnd ? MixPanelSplit.UNBOUNDED : end);
+        if (!window.isEmptyWindow()) {
+          windows.add(window);
+        }
+      }
+    }
+    return windows;
+  }
+
+  /**
+   * Returns window length which divides the split into {@link #WINDOWS_PER_STREAM} windows per stream, but at most a
+   * day, since windows do not cross days.
+   */
+  public static int getDefaultWindowMinutes(MixPanelSplit split, ZoneId zone, int streams) {
+    long start = split.getStartTime() != MixPanelSplit.UNBOUNDED
+      ? split.getStartTime() : LocalDate.parse(split.getFromDate()).atStartOfDay(zone).toEpochSecond();
+    long end = split.getEndTime() != MixPanelSplit.UNBOUNDED
+      ? split.getEndTime() : LocalDate.parse(split.getToDate()).plusDays(1).atStartOfDay(zone).toEpochSecond();
+    long windows = (long) streams * WINDOWS_PER_STREAM;
+    long minutes = (TimeUnit.SECONDS.toMinutes(Math.max(0, end - start)) + windows - 1) / windows;
+    return (int) Math.max(1, Math.min(MINUTES_PER_DAY, minutes));
+  }
+
+  private void download(int streamWindow) {
+    BlockingQueue<Batch> queue = queues.get(streamWindow);
+    Batch current = new Batch();
+    MixPanelExportStream stream = null;
+    try {
+      if (closed) {
+        return;
+      }
+      stream = new MixPanelExportStream(api, config, windows.get(streamWindow), metrics);
+      streams.add(stream);
+      if (closed) {
+        stream.abort();
+      }
+      Text event = new Text();
+      while (stream.next(event)) {
+        if (!current.add(event)) {
+          queue.put(current);
+          current = new Batch();
+          current.add(event);
+        }
+      }
+      current.end = true;
+    } catch (InterruptedException e) {
+      // closed
+      return;
+    } catch (Exception e) {
+      if (closed) {
+        return;
+      }
+      current.failure = new IOException(String.format("Export of window %s failed: %s", windows.get(streamWindow),
+                                                      e.getMessage()), e);
+    } finally {
+      if (stream != null) {
+        close(stream);
+      }
+    }
+    try {
+      queue.put(current);
+    } catch (InterruptedException e) {
+      // closed
+    }
+  }
+
+  private void close(MixPanelExportStream stream) {
+    streams.remove(stream);
+    try {
+      stream.close();
+    } catch (IOException e) {
+      LOG.debug("Failed to close export stream.", e);
+    }
+    compressedBytes.addAndGet(stream.getCompressedBytes());
+    uncompressedBytes.addAndGet(stream.getUncompressedBytes());
+    droppedEvents.addAndGet(stream.getDroppedEvents());
+    resumes.addAndGet(stream.getResumes());
+  }
+
+  @Override
+  public boolean next(Text event) throws IOException {
+    while (batch == null || position == batch.size()) {
+      if (finishedWindows == windows.size()) {
+        return false;
+      }
+      batch = take(queues.get(window));
+      position = 0;
+      if (batch.failure != null) {
+        finishedWindows = windows.size();
+        throw new IOException(batch.failure.getMessage(), batch.failure);
+      }
+      if (batch.end) {
+        finishedWindows++;
+        if (ordered) {
+          window++;
+          submitWindows();
+        }
+      }
+    }
+    batch.get(position++, event);
+    events++;
+    return true;
+  }
+
+  private Batch take(BlockingQueue<Batch> queue) throws IOException {
+    Batch batch = queue.poll();
+    if (batch == null) {
+      long startNanos = System.nanoTime();
+      try {
+        batch = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for export streams.");
+      }
+      metrics.streamsEmptyNanos.add(System.nanoTime() - startNanos);
+    }
+    return batch;
+  }
+
+  /**
+   * Estimates progress from number of windows read to the end.
+   */
+  @Override
+  public float getProgress() {
+    return (float) finishedWindows / windows.size();
+  }
+
+  @Override
+  public long getEvents() {
+    return events;
+  }
+
+  /**
+   * Returns number of bytes received by finished streams, includes all streams once the export is closed.
+   */
+  @Override
+  public long getCompressedBytes() {
+    return compressedBytes.get();
+  }
+
+  @Override
+  public long getUncompressedBytes() {
+    return uncompressedBytes.get();
+  }
+
+  @Override
+  public int getResumes() {
+    return resumes.get();
+  }
+
+  @Override
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  /**
+   * Stops downloading of windows and aborts streams which were not read to the end.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    executor.shutdownNow();
+    for (MixPanelExportStream stream : streams) {
+      stream.abort();
+    }
+    try {
+      // streams publish metrics and byte counts when they are closed
+      executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Events received by a stream, passed to the reader at once. Last batch of a window marks its end or failure.
+   */
+  private static class Batch extends MixPanelEventBatch {
+    private boolean end;
+    private IOException failure;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RecordReader, which parses events read by {@link MixPanelRecordReader} into records of output schema on a pool of
+ * threads, so a single split can use several cores for parsing. Events are parsed in batches, and records are
+ * returned in the order of export. Used if schema is generated by events and parser threads are set.
+ */
+public class MixPanelParsingRecordReader extends RecordReader<NullWritable, StructuredRecord> {
+  // batches parsed or waiting for parsing per parser thread
+  private static final int BATCHES_PER_THREAD = 2;
+  private static final AtomicInteger THREADS = new AtomicInteger();
+  private static final Gson GSON = new GsonBuilder().create();
+
+  private final MixPanelRecordReader recordReader;
+  private final int threads;
+  private final Deque<Future<StructuredRecord[]>> pendingBatches = new ArrayDeque<>();
+  private MixPanelFieldMapping fieldMapping;
+  private ExecutorService executor;
+  private StructuredRecord[] records;
+  private int position;
+  private boolean endOfInput;
+  // current event of the record reader did not fit into the previous batch
+  private boolean eventPending;
+  private StructuredRecord currentRecord;
+
+  public MixPanelParsingRecordReader(MixPanelRecordReader recordReader, int threads) {
+    this.recordReader = recordReader;
+    this.threads = threads;
+  }
+
+  @Override
+  public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException {
+    Configuration conf = taskAttemptContext.getConfiguration();
+    MixPanelBatchSourceConfig config = GSON.fromJson(conf.get(MixPanelInputFormatProvider.PROPERTY_CONFIG_JSON),
+                                                     MixPanelBatchSourceConfig.class);
+    // schema resolved when the run was prepared
+    Schema schema = Schema.parseJson(conf.get(MixPanelInputFormatProvider.PROPERTY_SCHEMA));
+    String propertyNamesJson = conf.get(MixPanelInputFormatProvider.PROPERTY_PROPERTY_NAMES);
+    List<String> propertyNames = propertyNamesJson == null
+      ? Collections.emptyList() : Arrays.asList(GSON.fromJson(propertyNamesJson, String[].class));
+    fieldMapping = MixPanelFieldMapping.of(config, schema, propertyNames);
+    executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "mixpanel-parser-" + THREADS.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    recordReader.initialize(inputSplit, taskAttemptContext);
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException {
+    while (records == null || position == records.length) {
+      submitBatches();
+      if (pendingBatches.isEmpty()) {
+        currentRecord = null;
+        return false;
+      }
+      records = get(pendingBatches.poll());
+      position = 0;
+    }
+    currentRecord = records[position];
+    // release parsed record, so memory is bounded by batches in flight
+    records[position++] = null;
+    return true;
+  }
+
+  /**
+   * Reads batches of events and submits them for parsing, until enough batches are in flight to keep all threads
+   * busy.
+   */
+  private void submitBatches() throws IOException {
+    while (!endOfInput && pendingBatches.size() < threads * BATCHES_PER_THREAD) {
+      MixPanelEventBatch batch = new MixPanelEventBatch();
+      if (eventPending) {
+        batch.add(recordReader.getCurrentValue());
+        eventPending = false;
+      }
+      while (true) {
+        if (!recordReader.nextKeyValue()) {
+          endOfInput = true;
+          break;
+        }
+        if (!batch.add(recordReader.getCurrentValue())) {
+          eventPending = true;
+          break;
+        }
+      }
+      if (batch.size() > 0) {
+        pendingBatches.add(executor.submit(() -> parse(batch)));
+      }
+    }
+  }
+
+  private StructuredRecord[] parse(MixPanelEventBatch batch) throws IOException {
+    long startNanos = System.nanoTime();
+    // parsers are not thread safe, field mapping is shared
+    MixPanelEventParser parser = new MixPanelEventParser(fieldMapping, recordReader.getMetrics());
+    Text event = new Text();
+    StructuredRecord[] parsedRecords = new StructuredRecord[batch.size()];
+    for (int i = 0; i < parsedRecords.length; i++) {
+      batch.get(i, event);
+      parsedRecords[i] = parser.parse(event);
+    }
+    recordReader.getMetrics().parseNanos.add(System.nanoTime() - startNanos);
+    return parsedRecords;
+  }
+
+  private static StructuredRecord[] get(Future<StructuredRecord[]> batch) throws IOException {
+    try {
+      return batch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for parsed events.");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+    }
+  }
+
+  @Override
+  public NullWritable getCurrentKey() {
+    return null;
+  }
+
+  @Override
+  public StructuredRecord getCurrentValue() {
+    return currentRecord;
+  }
+
+  @Override
+  public float getProgress() {
+    return recordReader.getProgress();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    recordReader.close();
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input stream which reads underlying stream ahead in a background thread, so export stream is received while events
+ * are processed and the TCP window does not fill up. Data is passed through a ring of preallocated chunks, so memory
+ * is bounded by the buffer size and no garbage is produced per chunk.
+ */
+public class MixPanelPrefetchInputStream extends InputStream {
+  public static final int DEFAULT_BUFFER_SIZE = 8 * 1024 * 1024;
+  static final int CHUNK_SIZE = 64 * 1024;
+  private static final Chunk END_OF_STREAM = new Chunk(0);
+
+  private final InputStream inputStream;
+  private final MixPanelMetrics metrics;
+  private final BlockingQueue<Chunk> freeChunks;
+  private final BlockingQueue<Chunk> filledChunks;
+  private final Thread thread;
+  private volatile boolean closed;
+  private Chunk chunk;
+  private int position;
+  private boolean endOfStream;
+
+  /**
+   * @param inputStream stream to read ahead
+   * @param bufferSize maximum number of bytes read ahead
+   * @param metrics metrics time spent waiting for chunks is recorded to
+   */
+  public MixPanelPrefetchInputStream(InputStream inputStream, int bufferSize, MixPanelMetrics metrics) {
+    this.inputStream = inputStream;
+    this.metrics = metrics;
+    int chunkSize = Math.min(CHUNK_SIZE, Math.max(1, bufferSize / 2));
+    int chunks = Math.max(2, bufferSize / chunkSize);
+    freeChunks = new ArrayBlockingQueue<>(chunks);
+    // one more slot for end of stream
+    filledChunks = new ArrayBlockingQueue<>(chunks + 1);
+    for (int i = 0; i < chunks; i++) {
+      freeChunks.add(new Chunk(chunkSize));
+    }
+    thread = new Thread(this::prefetch, "mixpanel-prefetch");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void prefetch() {
+    try {
+      while (!closed) {
+        Chunk free = take(freeChunks, metrics.prefetchFullNanos);
+        free.length = inputStream.read(free.bytes, 0, free.bytes.length);
+        if (free.length < 0) {
+          break;
+        }
+        filledChunks.put(free);
+      }
+    } catch (InterruptedException e) {
+      // closed
+      return;
+    } catch (Throwable e) {
+      // any failure is passed to the reader, which would otherwise wait for data forever
+      if (!closed) {
+        Chunk failure = new Chunk(0);
+        failure.failure = e;
+        filledChunks.offer(failure);
+        return;
+      }
+    }
+    filledChunks.offer(END_OF_STREAM);
+  }
+
+  private static Chunk take(BlockingQueue<Chunk> queue, MixPanelMetrics.Counter waitNanos)
+    throws InterruptedException {
+    Chunk chunk = queue.poll();
+    if (chunk == null) {
+      long startNanos = System.nanoTime();
+      chunk = queue.take();
+      waitNanos.add(System.nanoTime() - startNanos);
+    }
+    return chunk;
+  }
+
+  /**
+   * Makes sure a chunk with unread bytes is available.
+   *
+   * @return false on end of stream
+   */
+  private boolean fill() throws IOException {
+    if (chunk != null && position < chunk.length) {
+      return true;
+    }
+    if (endOfStream) {
+      return false;
+    }
+    if (chunk != null) {
+      freeChunks.add(chunk);
+      chunk = null;
+    }
+    Chunk filled;
+    try {
+      filled = take(filledChunks, metrics.prefetchEmptyNanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for export data.");
+    }
+    if (filled == END_OF_STREAM) {
+      endOfStream = true;
+      return false;
+    }
+    if (filled.failure != null) {
+      endOfStream = true;
+      throw new IOException(filled.failure.getMessage(), filled.failure);
+    }
+    chunk = filled;
+    position = 0;
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return chunk.bytes[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int count = Math.min(length, chunk.length - position);
+    System.arraycopy(chunk.bytes, position, buffer, offset, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return chunk == null ? 0 : chunk.length - position;
+  }
+
+  /**
+   * Stops reading ahead. Underlying stream is closed only if it was read to the end, otherwise it must be aborted by
+   * its owner, e.g. by closing http response, since closing it could block until the rest of the stream is received.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    thread.interrupt();
+    if (endOfStream) {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Buffer of bytes read ahead.
+   */
+  private static class Chunk {
+    private final byte[] bytes;
+    private int length;
+    private Throwable failure;
+
+    private Chunk(int size) {
+      this.bytes = new byte[size];
+    }
+  }
+}
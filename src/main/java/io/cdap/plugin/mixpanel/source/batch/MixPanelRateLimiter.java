@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting rate of requests sent to MixPanel. Limiters are shared by all requests of the JVM sent with
+ * the same project secret, so concurrent readers and schema discovery together stay within the project quota. Bucket
+ * holds up to a minute worth of tokens, so short bursts are allowed while hourly rate is kept.
+ */
+public class MixPanelRateLimiter {
+  private static final Map<String, MixPanelRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+  private final double capacity;
+  private final double nanosPerToken;
+  private double tokens;
+  private long lastRefillNanos;
+
+  MixPanelRateLimiter(int requestsPerHour) {
+    this.capacity = Math.max(1, requestsPerHour / 60);
+    this.nanosPerToken = (double) TimeUnit.HOURS.toNanos(1) / requestsPerHour;
+    this.tokens = capacity;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /**
+   * Returns limiter shared by all requests with given key and rate.
+   *
+   * @param key identifies quota the limiter applies to, e.g. hash of project secret
+   */
+  public static MixPanelRateLimiter getInstance(String key, int requestsPerHour) {
+    return LIMITERS.computeIfAbsent(key + ":" + requestsPerHour, k -> new MixPanelRateLimiter(requestsPerHour));
+  }
+
+  /**
+   * Takes a token, waiting until it is available. Tokens are reserved in order of calls, so waiting requests are
+   * served fairly.
+   */
+  public void acquire() throws InterruptedException {
+    long waitNanos = reserve();
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * Takes a token, possibly ahead of time.
+   *
+   * @return nanoseconds to wait before reserved token becomes available
+   */
+  synchronized long reserve() {
+    long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefillNanos) / nanosPerToken);
+    lastRefillNanos = now;
+    tokens -= 1;
+    return tokens >= 0 ? 0 : (long) (-tokens * nanosPerToken);
+  }
+}
@@ -24,34 +24,53 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
-import org.apache.http.NameValuePair;
-import org.apache.http.message.BasicNameValuePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
- * RecordReader implementation, which reads events in json format from MixPanel api.
+ * RecordReader implementation, which reads events in json format from MixPanel api. Split is exported by a single
+ * stream, or by several concurrent streams, each exporting another window of the split.
  */
 public class MixPanelRecordReader extends RecordReader<NullWritable, Text> {
+  private static final Logger LOG = LoggerFactory.getLogger(MixPanelRecordReader.class);
   private static final Gson GSON = new GsonBuilder().create();
-  private String currentEvent;
-  private MixPanelApi.RawEventsIterator eventsIterator;
-
-  private List<NameValuePair> getExportParameters(MixPanelBatchSourceConfig config) {
-    List<NameValuePair> params = new LinkedList<>();
-    params.add(new BasicNameValuePair("from_date", config.getFromDate()));
-    params.add(new BasicNameValuePair("to_date", config.getToDate()));
-    List<String> events = config.getEvents();
-    if (!events.isEmpty()) {
-      params.add(new BasicNameValuePair("event", GSON.toJson(events)));
+  private final Text currentEvent = new Text();
+  private MixPanelSplit split;
+  private MixPanelApi api;
+  private MixPanelExport export;
+  // key of the stage metrics are shared with, null if they are not published
+  @Nullable
+  private String stageKey;
+  private MixPanelMetrics metrics;
+  private int streams = 1;
+  private boolean finished;
+  private long startNanos;
+  private long firstByteNanos = -1;
+
+  /**
+   * Combines user defined filter with time window of the split.
+   */
+  static String getWhereExpression(@Nullable String filter, MixPanelSplit split) {
+    List<String> conditions = new ArrayList<>();
+    if (split.getStartTime() != MixPanelSplit.UNBOUNDED) {
+      conditions.add(String.format("properties[\"time\"] >= datetime(%d)", split.getStartTime()));
+    }
+    if (split.getEndTime() != MixPanelSplit.UNBOUNDED) {
+      conditions.add(String.format("properties[\"time\"] < datetime(%d)", split.getEndTime()));
     }
-    String filter = config.getFilter();
     if (filter != null && !filter.isEmpty()) {
-      params.add(new BasicNameValuePair("where", filter));
+      if (conditions.isEmpty()) {
+        return filter;
+      }
+      conditions.add(0, String.format("(%s)", filter));
     }
-    return params;
+    return String.join(" and ", conditions);
   }
 
   @Override
@@ -59,20 +78,63 @@ public class MixPanelRecordReader extends RecordReader<NullWritable, Text> {
     Configuration conf = taskAttemptContext.getConfiguration();
     String configJson = conf.get(MixPanelInputFormatProvider.PROPERTY_CONFIG_JSON);
     MixPanelBatchSourceConfig config = GSON.fromJson(configJson, MixPanelBatchSourceConfig.class);
+    split = (MixPanelSplit) inputSplit;
+
+    startNanos = System.nanoTime();
+    stageKey = conf.get(MixPanelInputFormatProvider.PROPERTY_STAGE_KEY);
+    metrics = stageKey == null ? new MixPanelMetrics() : MixPanelMetrics.retain(stageKey);
+    api = new MixPanelApi(config, metrics);
+    try {
+      export = createExport(config);
+    } catch (RuntimeException e) {
+      api.close();
+      releaseMetrics();
+      throw e;
+    }
+  }
 
-    MixPanelApi api = new MixPanelApi(config.getApiSecret(), config.getMixPanelRestApiUrl(),
-                                      config.getMixPanelDataUrl());
-    eventsIterator = api.getRawEvents(getExportParameters(config));
+  /**
+   * Returns metrics of the stage events of this reader are recorded to.
+   */
+  MixPanelMetrics getMetrics() {
+    return metrics;
+  }
+
+  private void releaseMetrics() {
+    if (stageKey != null) {
+      MixPanelMetrics.release(stageKey);
+      stageKey = null;
+    }
+  }
+
+  private MixPanelExport createExport(MixPanelBatchSourceConfig config) {
+    if (config.getStreamsPerSplit() > 1) {
+      Integer windowMinutes = config.getStreamWindowMinutes();
+      if (windowMinutes == null) {
+        windowMinutes = MixPanelMultiStreamExport.getDefaultWindowMinutes(split, config.getTimeZone(),
+                                                                          config.getStreamsPerSplit());
+      }
+      List<MixPanelSplit> windows = MixPanelMultiStreamExport.getWindows(split, config.getTimeZone(), windowMinutes);
+      if (windows.size() > 1) {
+        streams = Math.min(config.getStreamsPerSplit(), windows.size());
+        return new MixPanelMultiStreamExport(api, config, windows, streams, config.getPrefetchBufferSize(),
+                                             config.orderedStreams(), metrics);
+      }
+    }
+    return new MixPanelExportStream(api, config, split, metrics);
   }
 
   @Override
-  public boolean nextKeyValue() {
-    if (eventsIterator.hasNext()) {
-      currentEvent = eventsIterator.next();
-      return true;
-    } else {
-      return false;
+  public boolean nextKeyValue() throws IOException {
+    boolean hasNext = export.next(currentEvent);
+    if (firstByteNanos < 0) {
+      firstByteNanos = System.nanoTime() - startNanos;
+      metrics.timeToFirstByte.recordNanos(firstByteNanos);
+    }
+    if (!hasNext) {
+      finished = true;
     }
+    return hasNext;
   }
 
   @Override
@@ -80,20 +142,59 @@ public class MixPanelRecordReader extends RecordReader<NullWritable, Text> {
     return null;
   }
 
+  /**
+   * Returns current event. Same instance is refilled by every call of {@link #nextKeyValue()}.
+   */
   @Override
   public Text getCurrentValue() {
-    return new Text(currentEvent);
+    return currentEvent;
   }
 
   @Override
   public float getProgress() {
-    return 0;
+    if (finished) {
+      return 1;
+    }
+    return export == null ? 0 : export.getProgress();
   }
 
+  static float getProgress(long position, long start, long end) {
+    if (end <= start) {
+      return 0;
+    }
+    return (float) Math.min(1, Math.max(0, (double) (position - start) / (end - start)));
+  }
+
+  /**
+   * Logs summary of the split, showing whether reading was bound by MixPanel, i.e. by time to first byte and
+   * throttling, or by transfer and processing of the export stream, and releases the http client of the api and
+   * metrics of the stage.
+   */
   @Override
   public void close() throws IOException {
-    if (eventsIterator != null) {
-      eventsIterator.close();
+    try {
+      closeExport();
+    } finally {
+      if (api != null) {
+        api.close();
+      }
+      releaseMetrics();
+    }
+  }
+
+  private void closeExport() throws IOException {
+    if (export == null) {
+      return;
     }
+    export.close();
+    long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    long events = export.getEvents();
+    LOG.info("Read {} events of split {} by {} streams in {} ms ({} events/s). Received {} bytes of {} bytes of "
+               + "events, first byte after {} ms. Sent {} requests, {} retried, {} throttled. Resumed export {} times, "
+               + "dropped {} duplicate events.",
+             events, split, streams, elapsedMillis, events * 1000 / elapsedMillis, export.getCompressedBytes(),
+             export.getUncompressedBytes(), TimeUnit.NANOSECONDS.toMillis(firstByteNanos), api.getRequests(),
+             api.getRetries(), api.getThrottledRequests(), export.getResumes(), export.getDroppedEvents());
+    export = null;
   }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Caches schemas generated by events, so pipelines deployed or run repeatedly do not discover fields from MixPanel
+ * every time. Schemas are kept in memory of the JVM and, if cache path is configured, in files of any Hadoop file
+ * system, together with raw names of properties they were generated from. Entries older than configured TTL are
+ * discarded.
+ */
+public class MixPanelSchemaCache {
+  private static final Logger LOG = LoggerFactory.getLogger(MixPanelSchemaCache.class);
+  private static final String FILE_EXTENSION = ".json";
+  private static final Gson GSON = new GsonBuilder().create();
+  private static final Map<String, CachedSchema> SCHEMAS = new ConcurrentHashMap<>();
+
+  /**
+   * Returns schema for given config, generating it only if there is no fresh cached schema.
+   */
+  public static Schema getSchema(MixPanelBatchSourceConfig config) {
+    return getDiscoveredSchema(config).getSchema();
+  }
+
+  /**
+   * Returns schema for given config with raw names of its properties, generating it only if there is no fresh cached
+   * schema.
+   */
+  public static MixPanelSchemaHelper.DiscoveredSchema getDiscoveredSchema(MixPanelBatchSourceConfig config) {
+    long ttlMillis = TimeUnit.MINUTES.toMillis(config.getSchemaCacheTtlMinutes());
+    if (!config.schemaByEvents() || ttlMillis <= 0) {
+      return MixPanelSchemaHelper.discoverSchema(config);
+    }
+    MixPanelSchemaHelper.DiscoveredSchema schema = getCachedSchema(config);
+    if (schema != null) {
+      return schema;
+    }
+
+    schema = MixPanelSchemaHelper.discoverSchema(config);
+    String key = getKey(config);
+    SCHEMAS.put(key, new CachedSchema(schema, System.currentTimeMillis()));
+    Path path = getPath(config, key);
+    if (path != null) {
+      writeSchema(path, schema);
+    }
+    return schema;
+  }
+
+  /**
+   * Returns fresh cached schema for given config, or null if there is none. Schema is never generated.
+   */
+  @Nullable
+  public static MixPanelSchemaHelper.DiscoveredSchema getCachedSchema(MixPanelBatchSourceConfig config) {
+    long ttlMillis = TimeUnit.MINUTES.toMillis(config.getSchemaCacheTtlMinutes());
+    if (!config.schemaByEvents() || ttlMillis <= 0) {
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    SCHEMAS.values().removeIf(cachedSchema -> now - cachedSchema.createdMillis >= ttlMillis);
+    String key = getKey(config);
+    CachedSchema cachedSchema = SCHEMAS.get(key);
+    if (cachedSchema != null) {
+      return cachedSchema.schema;
+    }
+
+    Path path = getPath(config, key);
+    if (path != null) {
+      cachedSchema = readSchema(path);
+      if (cachedSchema != null && now - cachedSchema.createdMillis < ttlMillis) {
+        SCHEMAS.put(key, cachedSchema);
+        return cachedSchema.schema;
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private static Path getPath(MixPanelBatchSourceConfig config, String key) {
+    String cachePath = config.getSchemaCachePath();
+    return cachePath == null || cachePath.isEmpty() ? null : new Path(cachePath, key + FILE_EXTENSION);
+  }
+
+  /**
+   * Builds key from all properties which affect generated schema. Secret is included as a hash, so schemas of
+   * different projects are never mixed up, while secret itself does not appear in file names.
+   */
+  static String getKey(MixPanelBatchSourceConfig config) {
+    StringBuilder key = new StringBuilder()
+      .append(config.getMixPanelRestApiUrl()).append('\n')
+      .append(DigestUtils.sha256Hex(Objects.toString(config.getApiSecret(), ""))).append('\n')
+      .append(String.join(",", config.getEvents())).append('\n')
+      .append(String.join(",", config.getEventProperties())).append('\n');
+    if (config.inferTypes()) {
+      // inferred types depend on sampled events
+      key.append(config.getMixPanelDataUrl()).append('\n')
+        .append(config.getFromDate()).append('\n')
+        .append(config.getToDate()).append('\n')
+        .append(config.getFilter()).append('\n')
+        .append(config.getSchemaSampleSize());
+    }
+    return DigestUtils.sha256Hex(key.toString());
+  }
+
+  static void clear() {
+    SCHEMAS.clear();
+  }
+
+  @Nullable
+  private static CachedSchema readSchema(Path path) {
+    try {
+      FileSystem fileSystem = path.getFileSystem(new Configuration());
+      if (!fileSystem.exists(path)) {
+        return null;
+      }
+      FileStatus fileStatus = fileSystem.getFileStatus(path);
+      try (FSDataInputStream inputStream = fileSystem.open(path)) {
+        CachedFile cachedFile = GSON.fromJson(IOUtils.toString(inputStream, Charsets.UTF_8), CachedFile.class);
+        if (cachedFile == null || cachedFile.schema == null || cachedFile.propertyNames == null) {
+          // written by older version, without property names
+          return null;
+        }
+        return new CachedSchema(new MixPanelSchemaHelper.DiscoveredSchema(Schema.parseJson(cachedFile.schema),
+                                                                          cachedFile.propertyNames),
+                                fileStatus.getModificationTime());
+      }
+    } catch (IOException | JsonParseException e) {
+      LOG.warn("Failed to read cached schema from '{}', schema will be generated.", path, e);
+      return null;
+    }
+  }
+
+  private static void writeSchema(Path path, MixPanelSchemaHelper.DiscoveredSchema schema) {
+    try {
+      FileSystem fileSystem = path.getFileSystem(new Configuration());
+      // write to temporary file first, so concurrent readers never see partially written schema
+      Path tmpPath = new Path(path.getParent(), "." + path.getName() + "." + System.nanoTime());
+      try (FSDataOutputStream outputStream = fileSystem.create(tmpPath, true)) {
+        CachedFile cachedFile = new CachedFile(schema.getSchema().toString(), schema.getPropertyNames());
+        outputStream.write(GSON.toJson(cachedFile).getBytes(Charsets.UTF_8));
+      }
+      fileSystem.delete(path, false);
+      if (!fileSystem.rename(tmpPath, path)) {
+        fileSystem.delete(tmpPath, false);
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to write schema to cache '{}'.", path, e);
+    }
+  }
+
+  /**
+   * Schema with time it was generated at.
+   */
+  private static class CachedSchema {
+    private final MixPanelSchemaHelper.DiscoveredSchema schema;
+    private final long createdMillis;
+
+    private CachedSchema(MixPanelSchemaHelper.DiscoveredSchema schema, long createdMillis) {
+      this.schema = schema;
+      this.createdMillis = createdMillis;
+    }
+  }
+
+  /**
+   * Content of cache file, schema is kept as its own json string.
+   */
+  private static class CachedFile {
+    private String schema;
+    private List<String> propertyNames;
+
+    private CachedFile(String schema, List<String> propertyNames) {
+      this.schema = schema;
+      this.propertyNames = propertyNames;
+    }
+  }
+}
@@ -18,88 +18,251 @@ package io.cdap.plugin.mixpanel.source.batch;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import io.cdap.cdap.api.data.format.StructuredRecord;
 import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.io.Text;
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /**
  * Helper class to work with MixPanel schema.
  */
 public class MixPanelSchemaHelper {
-  /**
-   * Parsed MixPanel event.
-   */
-  public static class MixPanelEvent {
-    public String event;
-    public Map<String, String> properties;
-  }
-
+  static final String EVENT_NAME_FIELD = "event_name";
+  static final String EVENT_NAME_FIELD_DESC = "$event_name";
+  static final String DISTINCT_ID_FIELD = "distinct_id";
+  static final String TIME_FIELD = "time";
   private static final Gson GSON = new GsonBuilder().create();
-  private static final String EVENT_NAME_FIELD = "event_name";
-  private static final String EVENT_NAME_FIELD_DESC = "$event_name";
+  private static final Pattern INVALID_FIELD_NAME_CHARACTERS = Pattern.compile("[^a-zA-Z0-9_]");
+  private static final Pattern LEADING_OR_TRAILING_UNDERSCORES = Pattern.compile("^_+|_+$");
   private static final Schema MIX_PANEL_RECORD_SCHEMA = Schema.recordOf(
     "mixPanelRecord", Schema.Field.of("raw_event", Schema.of(Schema.Type.STRING)));
 
   public static Schema getSchemaFromConfig(MixPanelBatchSourceConfig config) {
-    if (config.schemaByEvents()) {
-      MixPanelApi api = new MixPanelApi(config.getApiSecret(), config.getMixPanelRestApiUrl(),
-                                        config.getMixPanelDataUrl());
-
-      Map<String, String> mappedFields = new HashMap<>();
-
-      Set<String> fieldNames = config.getEvents().stream()
-        .flatMap(eventName -> api.getEventTopFields(eventName).stream())
-        .map(fieldName -> {
-          String escapedFieldName = escapeFieldName(fieldName);
-          // this is not likely to happen in real world, but lets check to ensure that user will not get incorrect data
-          // handle cases where we have fields "$$name" and "$name" that will be escaped to "name" and probably will
-          // have conflicts
-          if (!mappedFields.containsKey(escapedFieldName)) {
-            mappedFields.put(escapedFieldName, fieldName);
-          } else if (!mappedFields.get(escapedFieldName).equals(fieldName)) {
-            throw new IllegalArgumentException(
-              String.format("'%s' escaped to '%s', but '%s' was previously escaped to same value", fieldName,
-                            escapedFieldName, mappedFields.get(escapedFieldName)));
-          }
-          return escapedFieldName;
-        })
-        .collect(Collectors.toSet());
+    return discoverSchema(config).getSchema();
+  }
 
-      // make sure default fields available
-      fieldNames.add("event_name");
-      fieldNames.add("distinct_id");
-      fieldNames.add("time");
+  /**
+   * Generates schema of config, together with raw names of properties its fields are escaped from.
+   */
+  static DiscoveredSchema discoverSchema(MixPanelBatchSourceConfig config) {
+    if (config.schemaByEvents()) {
+      try (MixPanelApi api = new MixPanelApi(config)) {
+        return discoverSchema(api, config);
+      }
+    } else {
+      return new DiscoveredSchema(MIX_PANEL_RECORD_SCHEMA, Collections.emptyList());
+    }
+  }
 
-      List<Schema.Field> fields = fieldNames.stream()
-        .map(s -> Schema.Field.of(s, Schema.nullableOf(Schema.of(Schema.Type.STRING))))
+  /**
+   * Generates schema of properties discovered from top properties of events, or of listed properties if schema is
+   * limited to them, in which case nothing is discovered.
+   */
+  private static DiscoveredSchema discoverSchema(MixPanelApi api, MixPanelBatchSourceConfig config) {
+    List<String> propertyNames;
+    if (config.getEventProperties().isEmpty()) {
+      propertyNames = getEventTopFields(api, config.getEvents(), config.getSchemaDiscoveryThreads()).stream()
+        .flatMap(Collection::stream)
+        .distinct()
         .collect(Collectors.toList());
-
-      return Schema.recordOf("mixPanelRecord", fields);
     } else {
-      return MIX_PANEL_RECORD_SCHEMA;
+      propertyNames = config.getEventProperties();
     }
+    Set<String> fieldNames = escapeFieldNames(propertyNames.stream());
+
+    // make sure default fields available
+    fieldNames.add(EVENT_NAME_FIELD);
+    fieldNames.add(DISTINCT_ID_FIELD);
+    fieldNames.add(TIME_FIELD);
+
+    Map<String, Schema> fieldSchemas = config.inferTypes() ? inferFieldSchemas(api, config) : new HashMap<>();
+    List<Schema.Field> fields = fieldNames.stream()
+      .map(s -> Schema.Field.of(s, Schema.nullableOf(fieldSchemas.getOrDefault(s, Schema.of(Schema.Type.STRING)))))
+      .collect(Collectors.toList());
+
+    return new DiscoveredSchema(Schema.recordOf("mixPanelRecord", fields), propertyNames);
   }
 
-  public static StructuredRecord getRecordForEvent(MixPanelBatchSourceConfig config, String event) {
-    if (config.schemaByEvents()) {
-      MixPanelEvent parsedEvent = GSON.fromJson(event, MixPanelEvent.class);
-      StructuredRecord.Builder builder = StructuredRecord.builder(config.getSchema());
-      builder.set(EVENT_NAME_FIELD, parsedEvent.event);
-      parsedEvent.properties.forEach((propertyName, propertyValue) -> {
-        propertyName = escapeFieldName(propertyName);
-        if (config.getSchema().getField(propertyName) != null) {
-          builder.set(propertyName, propertyValue);
+  /**
+   * Escapes property names to field names, failing if different names are escaped to the same field.
+   */
+  private static Set<String> escapeFieldNames(Stream<String> propertyNames) {
+    Map<String, String> mappedFields = new HashMap<>();
+    return propertyNames
+      .map(fieldName -> {
+        String escapedFieldName = escapeFieldName(fieldName);
+        // this is not likely to happen in real world, but lets check to ensure that user will not get incorrect data
+        // handle cases where we have fields "$$name" and "$name" that will be escaped to "name" and probably will
+        // have conflicts
+        if (!mappedFields.containsKey(escapedFieldName)) {
+          mappedFields.put(escapedFieldName, fieldName);
+        } else if (!mappedFields.get(escapedFieldName).equals(fieldName)) {
+          throw new IllegalArgumentException(
+            String.format("'%s' escaped to '%s', but '%s' was previously escaped to same value", fieldName,
+                          escapedFieldName, mappedFields.get(escapedFieldName)));
         }
-      });
-      return builder.build();
-    } else {
-      return StructuredRecord.builder(MIX_PANEL_RECORD_SCHEMA).set("raw_event", event).build();
+        return escapedFieldName;
+      })
+      .collect(Collectors.toSet());
+  }
+
+  /**
+   * Fetches top fields of every event, sending at most given number of requests concurrently. Results are returned
+   * in order of events, so conflicts of escaped names are reported the same way regardless of response order.
+   */
+  static List<Collection<String>> getEventTopFields(MixPanelApi api, List<String> events, int threads) {
+    if (events.size() <= 1) {
+      return events.stream().map(api::getEventTopFields).collect(Collectors.toList());
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, events.size()));
+    try {
+      List<Future<Collection<String>>> futures = new ArrayList<>();
+      for (String eventName : events) {
+        futures.add(executor.submit(() -> api.getEventTopFields(eventName)));
+      }
+      List<Collection<String>> eventFields = new ArrayList<>();
+      for (Future<Collection<String>> future : futures) {
+        eventFields.add(future.get());
+      }
+      return eventFields;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while fetching fields of events");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause().getMessage());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Infers field types from a sample of exported events. Fields which have only integer values are mapped to long,
+   * numeric to double, boolean to boolean and event time to timestamp. Fields with mixed or other values, or
+   * without values in the sample, stay strings. Sample of incremental mode without to date ends today.
+   */
+  private static Map<String, Schema> inferFieldSchemas(MixPanelApi api, MixPanelBatchSourceConfig config) {
+    String toDate = config.getToDate();
+    if (toDate == null || toDate.isEmpty()) {
+      toDate = LocalDate.now(config.getTimeZone()).toString();
+    }
+    List<NameValuePair> params = new ArrayList<>();
+    params.add(new BasicNameValuePair("from_date", config.getFromDate()));
+    params.add(new BasicNameValuePair("to_date", toDate));
+    params.add(new BasicNameValuePair("event", GSON.toJson(config.getEvents())));
+    params.add(new BasicNameValuePair("limit", String.valueOf(config.getSchemaSampleSize())));
+    String filter = config.getFilter();
+    if (filter != null && !filter.isEmpty()) {
+      params.add(new BasicNameValuePair("where", filter));
     }
+
+    Map<String, Schema.Type> fieldTypes;
+    try (MixPanelApi.RawEventsIterator events = api.getRawEvents(params)) {
+      fieldTypes = inferFieldTypes(events);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    Map<String, Schema> fieldSchemas = new HashMap<>();
+    fieldTypes.forEach((fieldName, type) -> fieldSchemas.put(fieldName, Schema.of(type)));
+    // keep identifiers as strings even if sample contains only numeric ones
+    fieldSchemas.remove(EVENT_NAME_FIELD);
+    fieldSchemas.remove(DISTINCT_ID_FIELD);
+    fieldSchemas.put(TIME_FIELD, Schema.of(Schema.LogicalType.TIMESTAMP_MICROS));
+    return fieldSchemas;
+  }
+
+  static Map<String, Schema.Type> inferFieldTypes(Iterator<String> events) throws IOException {
+    Map<String, Schema.Type> fieldTypes = new HashMap<>();
+    while (events.hasNext()) {
+      JsonReader jsonReader = new JsonReader(new StringReader(events.next()));
+      jsonReader.beginObject();
+      while (jsonReader.hasNext()) {
+        if (!jsonReader.nextName().equals("properties") || jsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+          jsonReader.skipValue();
+          continue;
+        }
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+          String fieldName = escapeFieldName(jsonReader.nextName());
+          Schema.Type type = readValueType(jsonReader);
+          if (type != null) {
+            fieldTypes.merge(fieldName, type, MixPanelSchemaHelper::mergeTypes);
+          }
+        }
+        jsonReader.endObject();
+      }
+      jsonReader.endObject();
+    }
+    return fieldTypes;
+  }
+
+  @Nullable
+  private static Schema.Type readValueType(JsonReader jsonReader) throws IOException {
+    switch (jsonReader.peek()) {
+      case NULL:
+        jsonReader.nextNull();
+        return null;
+      case BOOLEAN:
+        jsonReader.nextBoolean();
+        return Schema.Type.BOOLEAN;
+      case NUMBER:
+        String value = jsonReader.nextString();
+        try {
+          Long.parseLong(value);
+          return Schema.Type.LONG;
+        } catch (NumberFormatException e) {
+          return Schema.Type.DOUBLE;
+        }
+      default:
+        jsonReader.skipValue();
+        return Schema.Type.STRING;
+    }
+  }
+
+  private static Schema.Type mergeTypes(Schema.Type first, Schema.Type second) {
+    if (first == second) {
+      return first;
+    }
+    if ((first == Schema.Type.LONG || first == Schema.Type.DOUBLE)
+      && (second == Schema.Type.LONG || second == Schema.Type.DOUBLE)) {
+      return Schema.Type.DOUBLE;
+    }
+    return Schema.Type.STRING;
+  }
+
+  /**
+   * Wraps raw event into record, used when schema is not generated by events.
+   */
+  public static StructuredRecord getRawEventRecord(Text event) {
+    return StructuredRecord.builder(MIX_PANEL_RECORD_SCHEMA).set("raw_event", event.toString()).build();
   }
 
   /**
@@ -113,13 +276,35 @@ public class MixPanelSchemaHelper {
       return EVENT_NAME_FIELD;
     }
     // strip unwanted symbols
-    fieldName = fieldName.replaceAll("[^a-zA-Z0-9_]", "_");
+    fieldName = INVALID_FIELD_NAME_CHARACTERS.matcher(fieldName).replaceAll("_");
     // strip possible leading and trailing _
-    fieldName = fieldName.replaceAll("^_+|_+$", "");
+    fieldName = LEADING_OR_TRAILING_UNDERSCORES.matcher(fieldName).replaceAll("");
     // ensure starts with [A-Za-z_]
-    if (Character.isDigit(fieldName.charAt(0))) {
+    if (!fieldName.isEmpty() && Character.isDigit(fieldName.charAt(0))) {
       fieldName = "_" + fieldName;
     }
     return fieldName;
   }
+
+  /**
+   * Schema generated by events, with raw names of properties discovered or listed for it. Names let readers map
+   * properties to fields without escaping every name they read.
+   */
+  public static class DiscoveredSchema {
+    private final Schema schema;
+    private final List<String> propertyNames;
+
+    public DiscoveredSchema(Schema schema, List<String> propertyNames) {
+      this.schema = schema;
+      this.propertyNames = propertyNames;
+    }
+
+    public Schema getSchema() {
+      return schema;
+    }
+
+    public List<String> getPropertyNames() {
+      return propertyNames;
+    }
+  }
 }
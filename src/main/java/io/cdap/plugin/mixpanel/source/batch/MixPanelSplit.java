@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A split covering a range of export dates, optionally narrowed to a time window and to a group of events.
+ */
+public class MixPanelSplit extends InputSplit implements Writable {
+  /**
+   * Marks window boundary which is not limited.
+   */
+  public static final long UNBOUNDED = -1;
+
+  private String fromDate;
+  private String toDate;
+  private long startTime = UNBOUNDED;
+  private long endTime = UNBOUNDED;
+  private List<String> events = Collections.emptyList();
+  private long length;
+
+  public MixPanelSplit() {
+    // used by Hadoop when deserializing splits
+  }
+
+  public MixPanelSplit(String fromDate, String toDate) {
+    this.fromDate = fromDate;
+    this.toDate = toDate;
+  }
+
+  /**
+   * Creates split for a window of a single day.
+   *
+   * @param date export date
+   * @param startTime inclusive window start in epoch seconds, or {@link #UNBOUNDED}
+   * @param endTime exclusive window end in epoch seconds, or {@link #UNBOUNDED}
+   */
+  public MixPanelSplit(String date, long startTime, long endTime) {
+    this(date, date);
+    this.startTime = startTime;
+    this.endTime = endTime;
+  }
+
+  public String getFromDate() {
+    return fromDate;
+  }
+
+  public String getToDate() {
+    return toDate;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Returns events exported by this split, empty if all configured events should be exported.
+   */
+  public List<String> getEvents() {
+    return events;
+  }
+
+  /**
+   * Returns copy of this split, which exports only given events.
+   */
+  public MixPanelSplit forEvents(List<String> events) {
+    MixPanelSplit split = copy();
+    split.events = Collections.unmodifiableList(new ArrayList<>(events));
+    return split;
+  }
+
+  /**
+   * Returns copy of this split, which exports only given date.
+   */
+  public MixPanelSplit forDate(String date) {
+    MixPanelSplit split = copy();
+    split.fromDate = date;
+    split.toDate = date;
+    return split;
+  }
+
+  /**
+   * Returns copy of this split with given estimated number of events.
+   */
+  public MixPanelSplit withLength(long length) {
+    MixPanelSplit split = copy();
+    split.length = length;
+    return split;
+  }
+
+  /**
+   * Returns copy of this split, which window starts at given time, or later if it started later already.
+   */
+  public MixPanelSplit resumeFrom(long startTime) {
+    MixPanelSplit split = copy();
+    split.startTime = Math.max(this.startTime, startTime);
+    return split;
+  }
+
+  /**
+   * Returns copy of this split, which window is narrowed to given window.
+   *
+   * @param startTime inclusive window start in epoch seconds, or {@link #UNBOUNDED}
+   * @param endTime exclusive window end in epoch seconds, or {@link #UNBOUNDED}
+   */
+  public MixPanelSplit withinWindow(long startTime, long endTime) {
+    MixPanelSplit split = copy();
+    if (startTime != UNBOUNDED) {
+      split.startTime = this.startTime == UNBOUNDED ? startTime : Math.max(this.startTime, startTime);
+    }
+    if (endTime != UNBOUNDED) {
+      split.endTime = this.endTime == UNBOUNDED ? endTime : Math.min(this.endTime, endTime);
+    }
+    return split;
+  }
+
+  /**
+   * Returns true if window of this split can not contain any events.
+   */
+  public boolean isEmptyWindow() {
+    return startTime != UNBOUNDED && endTime != UNBOUNDED && startTime >= endTime;
+  }
+
+  private MixPanelSplit copy() {
+    MixPanelSplit split = new MixPanelSplit(fromDate, toDate);
+    split.startTime = startTime;
+    split.endTime = endTime;
+    split.events = events;
+    split.length = length;
+    return split;
+  }
+
+  @Override
+  public void readFields(DataInput dataInput) throws IOException {
+    fromDate = dataInput.readUTF();
+    toDate = dataInput.readUTF();
+    startTime = dataInput.readLong();
+    endTime = dataInput.readLong();
+    int eventsCount = dataInput.readInt();
+    List<String> events = new ArrayList<>(eventsCount);
+    for (int i = 0; i < eventsCount; i++) {
+      events.add(dataInput.readUTF());
+    }
+    this.events = Collections.unmodifiableList(events);
+    length = dataInput.readLong();
+  }
+
+  @Override
+  public void write(DataOutput dataOutput) throws IOException {
+    dataOutput.writeUTF(fromDate);
+    dataOutput.writeUTF(toDate);
+    dataOutput.writeLong(startTime);
+    dataOutput.writeLong(endTime);
+    dataOutput.writeInt(events.size());
+    for (String event : events) {
+      dataOutput.writeUTF(event);
+    }
+    dataOutput.writeLong(length);
+  }
+
+  /**
+   * Returns estimated number of events in the split, 0 if unknown.
+   */
+  @Override
+  public long getLength() {
+    return length;
+  }
+
+  @Override
+  public String[] getLocations() {
+    return new String[0];
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MixPanelSplit{fromDate=%s, toDate=%s, startTime=%d, endTime=%d, events=%s}",
+                         fromDate, toDate, startTime, endTime, events);
+  }
+}
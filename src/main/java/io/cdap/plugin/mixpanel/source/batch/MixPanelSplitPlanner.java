@@ -0,0 +1,307 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Cuts export date range and list of events into splits which can be read in parallel.
+ */
+public class MixPanelSplitPlanner {
+  private static final long MINUTES_PER_DAY = TimeUnit.DAYS.toMinutes(1);
+  private static final long DEFAULT_TARGET_EVENTS_PER_SPLIT = 1_000_000;
+
+  private final MixPanelBatchSourceConfig config;
+  @Nullable
+  private final MixPanelVolumeProbe volumeProbe;
+
+  public MixPanelSplitPlanner(MixPanelBatchSourceConfig config) {
+    this(config, null);
+  }
+
+  /**
+   * @param config source config
+   * @param volumeProbe probe used to plan adaptive splits, may be null if adaptive splits are not used
+   */
+  public MixPanelSplitPlanner(MixPanelBatchSourceConfig config, @Nullable MixPanelVolumeProbe volumeProbe) {
+    this.config = config;
+    this.volumeProbe = volumeProbe;
+  }
+
+  public List<MixPanelSplit> getSplits() {
+    if (config.adaptiveSplits() && volumeProbe != null) {
+      return getAdaptiveSplits();
+    }
+
+    List<List<String>> eventGroups = getEventGroups();
+    if (eventGroups.isEmpty()) {
+      return getDateSplits(config.getMaxSplits());
+    }
+
+    List<MixPanelSplit> splits = new ArrayList<>();
+    for (MixPanelSplit dateSplit : getDateSplits(getMaxSplitsPerGroup(eventGroups.size()))) {
+      for (List<String> eventGroup : eventGroups) {
+        splits.add(dateSplit.forEvents(eventGroup));
+      }
+    }
+    return splits;
+  }
+
+  /**
+   * Plans splits using number of events per day, so every split exports roughly the same number of events.
+   * Quiet days are packed together, while days with more events than target are cut into time windows.
+   */
+  private List<MixPanelSplit> getAdaptiveSplits() {
+    LocalDate fromDate = LocalDate.parse(config.getFromDate());
+    LocalDate toDate = LocalDate.parse(config.getToDate());
+    if (toDate.isBefore(fromDate)) {
+      return getSingleSplit();
+    }
+
+    Map<String, Map<LocalDate, Long>> counts = volumeProbe.getDailyEventCounts(config.getEvents(), fromDate, toDate);
+    List<List<String>> eventGroups = getBalancedEventGroups(counts);
+    int maxSplits = getMaxSplitsPerGroup(eventGroups.size());
+    int days = (int) ChronoUnit.DAYS.between(fromDate, toDate) + 1;
+
+    List<MixPanelSplit> splits = new ArrayList<>();
+    for (List<String> eventGroup : eventGroups) {
+      long[] dailyCounts = new long[days];
+      for (String event : eventGroup) {
+        Map<LocalDate, Long> eventCounts = counts.getOrDefault(event, Collections.emptyMap());
+        for (int day = 0; day < days; day++) {
+          dailyCounts[day] += eventCounts.getOrDefault(fromDate.plusDays(day), 0L);
+        }
+      }
+
+      long target = config.getTargetEventsPerSplit();
+      if (target <= 0) {
+        target = maxSplits > 0 ? divideRoundingUp(Arrays.stream(dailyCounts).sum(), maxSplits)
+          : DEFAULT_TARGET_EVENTS_PER_SPLIT;
+      }
+      target = Math.max(1, target);
+      List<MixPanelSplit> groupSplits = packDays(fromDate, dailyCounts, target);
+      // packing is greedy, so it can produce a few more splits than allowed
+      while (maxSplits > 0 && groupSplits.size() > maxSplits) {
+        target *= 2;
+        groupSplits = packDays(fromDate, dailyCounts, target);
+      }
+      for (MixPanelSplit split : groupSplits) {
+        splits.add(split.forEvents(eventGroup));
+      }
+    }
+    return splits;
+  }
+
+  private List<MixPanelSplit> packDays(LocalDate fromDate, long[] dailyCounts, long target) {
+    List<MixPanelSplit> splits = new ArrayList<>();
+    LocalDate pendingStart = null;
+    long pendingCount = 0;
+    for (int day = 0; day < dailyCounts.length; day++) {
+      LocalDate date = fromDate.plusDays(day);
+      long count = dailyCounts[day];
+      if (pendingStart != null && pendingCount + count > target) {
+        splits.add(new MixPanelSplit(pendingStart.toString(), date.minusDays(1).toString()).withLength(pendingCount));
+        pendingStart = null;
+        pendingCount = 0;
+      }
+      if (count > target) {
+        long windows = Math.min(divideRoundingUp(count, target), MINUTES_PER_DAY);
+        List<MixPanelSplit> windowSplits = getDayWindowSplits(date, (int) divideRoundingUp(MINUTES_PER_DAY, windows));
+        for (MixPanelSplit windowSplit : windowSplits) {
+          splits.add(windowSplit.withLength(count / windowSplits.size()));
+        }
+        continue;
+      }
+      if (pendingStart == null) {
+        pendingStart = date;
+      }
+      pendingCount += count;
+    }
+    if (pendingStart != null) {
+      splits.add(new MixPanelSplit(pendingStart.toString(), fromDate.plusDays(dailyCounts.length - 1).toString())
+                   .withLength(pendingCount));
+    }
+    return splits;
+  }
+
+  /**
+   * Shares allowed number of splits between event groups.
+   */
+  private int getMaxSplitsPerGroup(int groupsCount) {
+    return config.getMaxSplits() > 0 ? Math.max(1, config.getMaxSplits() / groupsCount) : 0;
+  }
+
+  /**
+   * Returns number of event groups events should be sharded to, 0 if events should not be sharded.
+   */
+  private int getEventGroupsCount() {
+    List<String> events = config.getEvents();
+    int eventsPerSplit = config.getEventsPerSplit();
+    if (eventsPerSplit <= 0 || events.isEmpty()) {
+      return 0;
+    }
+    int maxSplits = config.getMaxSplits();
+    if (maxSplits > 0 && divideRoundingUp(events.size(), eventsPerSplit) > maxSplits) {
+      eventsPerSplit = (int) divideRoundingUp(events.size(), maxSplits);
+    }
+    return (int) divideRoundingUp(events.size(), eventsPerSplit);
+  }
+
+  /**
+   * Groups configured events into groups of similar size, so every group can be exported by a separate split.
+   */
+  private List<List<String>> getEventGroups() {
+    List<String> events = config.getEvents();
+    int groupsCount = getEventGroupsCount();
+    List<List<String>> groups = new ArrayList<>(groupsCount);
+    int groupStart = 0;
+    for (int i = 0; i < groupsCount; i++) {
+      int groupEnd = groupStart + (events.size() - groupStart) / (groupsCount - i);
+      groups.add(events.subList(groupStart, groupEnd));
+      groupStart = groupEnd;
+    }
+    return groups;
+  }
+
+  /**
+   * Groups configured events into groups of similar number of events, placing every event, starting from the
+   * largest, into the group with the least events so far.
+   */
+  private List<List<String>> getBalancedEventGroups(Map<String, Map<LocalDate, Long>> counts) {
+    List<String> events = config.getEvents();
+    int groupsCount = getEventGroupsCount();
+    if (groupsCount == 0) {
+      return Collections.singletonList(events);
+    }
+
+    Map<String, Long> totals = new HashMap<>();
+    for (String event : events) {
+      Map<LocalDate, Long> eventCounts = counts.getOrDefault(event, Collections.emptyMap());
+      totals.put(event, eventCounts.values().stream().mapToLong(Long::longValue).sum());
+    }
+    List<String> sortedEvents = new ArrayList<>(events);
+    sortedEvents.sort(Comparator.comparing(totals::get, Comparator.reverseOrder()));
+
+    List<List<String>> groups = new ArrayList<>(groupsCount);
+    long[] groupTotals = new long[groupsCount];
+    for (int i = 0; i < groupsCount; i++) {
+      groups.add(new ArrayList<>());
+    }
+    for (String event : sortedEvents) {
+      int smallest = 0;
+      for (int i = 1; i < groupsCount; i++) {
+        if (groupTotals[i] < groupTotals[smallest]) {
+          smallest = i;
+        }
+      }
+      groups.get(smallest).add(event);
+      groupTotals[smallest] += totals.get(event);
+    }
+    groups.removeIf(List::isEmpty);
+    return groups;
+  }
+
+  private List<MixPanelSplit> getDateSplits(int maxSplits) {
+    LocalDate fromDate = LocalDate.parse(config.getFromDate());
+    LocalDate toDate = LocalDate.parse(config.getToDate());
+    if (toDate.isBefore(fromDate)) {
+      return getSingleSplit();
+    }
+
+    long days = ChronoUnit.DAYS.between(fromDate, toDate) + 1;
+    int daysPerSplit = config.getDaysPerSplit();
+    int windowMinutes = config.getSplitWindowMinutes();
+    if (windowMinutes > 0) {
+      long windowsPerDay = divideRoundingUp(MINUTES_PER_DAY, windowMinutes);
+      // use wider windows to stay within allowed number of concurrent export requests
+      if (maxSplits > 0 && days * windowsPerDay > maxSplits) {
+        windowsPerDay = Math.max(1, maxSplits / days);
+        windowMinutes = (int) divideRoundingUp(MINUTES_PER_DAY, windowsPerDay);
+      }
+      if (windowsPerDay > 1) {
+        return getWindowSplits(fromDate, toDate, windowMinutes);
+      }
+      daysPerSplit = Math.max(1, daysPerSplit);
+    }
+    if (daysPerSplit <= 0) {
+      return getSingleSplit();
+    }
+
+    // widen splits to stay within allowed number of concurrent export requests
+    if (maxSplits > 0 && divideRoundingUp(days, daysPerSplit) > maxSplits) {
+      daysPerSplit = (int) divideRoundingUp(days, maxSplits);
+    }
+
+    List<MixPanelSplit> splits = new ArrayList<>();
+    for (LocalDate splitStart = fromDate; !splitStart.isAfter(toDate); splitStart = splitStart.plusDays(daysPerSplit)) {
+      LocalDate splitEnd = splitStart.plusDays(daysPerSplit - 1);
+      if (splitEnd.isAfter(toDate)) {
+        splitEnd = toDate;
+      }
+      splits.add(new MixPanelSplit(splitStart.toString(), splitEnd.toString()));
+    }
+    return splits;
+  }
+
+  private List<MixPanelSplit> getSingleSplit() {
+    List<MixPanelSplit> splits = new ArrayList<>();
+    splits.add(new MixPanelSplit(config.getFromDate(), config.getToDate()));
+    return splits;
+  }
+
+  private List<MixPanelSplit> getWindowSplits(LocalDate fromDate, LocalDate toDate, int windowMinutes) {
+    List<MixPanelSplit> splits = new ArrayList<>();
+    for (LocalDate date = fromDate; !date.isAfter(toDate); date = date.plusDays(1)) {
+      splits.addAll(getDayWindowSplits(date, windowMinutes));
+    }
+    return splits;
+  }
+
+  /**
+   * Splits a day into windows of given length. First and last windows of the day are left open, so events which
+   * fall outside of the day in configured time zone are still read exactly once.
+   */
+  private List<MixPanelSplit> getDayWindowSplits(LocalDate date, int windowMinutes) {
+    ZoneId zone = config.getTimeZone();
+    long windowSeconds = TimeUnit.MINUTES.toSeconds(windowMinutes);
+    long dayStart = date.atStartOfDay(zone).toEpochSecond();
+    long dayEnd = date.plusDays(1).atStartOfDay(zone).toEpochSecond();
+    List<MixPanelSplit> splits = new ArrayList<>();
+    for (long windowStart = dayStart; windowStart < dayEnd; windowStart += windowSeconds) {
+      long windowEnd = windowStart + windowSeconds;
+      splits.add(new MixPanelSplit(date.toString(),
+                                   windowStart == dayStart ? MixPanelSplit.UNBOUNDED : windowStart,
+                                   windowEnd >= dayEnd ? MixPanelSplit.UNBOUNDED : windowEnd));
+    }
+    return splits;
+  }
+
+  private static long divideRoundingUp(long dividend, long divisor) {
+    return (dividend + divisor - 1) / divisor;
+  }
+}
@@ -16,34 +16,21 @@
 
 package io.cdap.plugin.mixpanel.source.batch;
 
-import org.apache.hadoop.io.Writable;
-import org.apache.hadoop.mapreduce.InputSplit;
-
-import java.io.DataInput;
-import java.io.DataOutput;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 
 /**
- * A no-op split.
+ * Estimates volume of events before export, used to plan splits of similar size.
  */
-public class NoOpMixPanelSplit extends InputSplit implements Writable {
-  public NoOpMixPanelSplit() {
-  }
-
-  @Override
-  public void readFields(DataInput dataInput) {
-  }
-
-  @Override
-  public void write(DataOutput dataOutput) {
-  }
-
-  @Override
-  public long getLength() {
-    return 0;
-  }
-
-  @Override
-  public String[] getLocations() {
-    return new String[0];
-  }
+public interface MixPanelVolumeProbe {
+  /**
+   * Returns number of events per day for each of given events. Days without events may be omitted.
+   *
+   * @param events event names
+   * @param fromDate first day, inclusive
+   * @param toDate last day, inclusive
+   * @return map from event name to number of events per day
+   */
+  Map<String, Map<LocalDate, Long>> getDailyEventCounts(List<String> events, LocalDate fromDate, LocalDate toDate);
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import javax.annotation.Nullable;
+
+/**
+ * Export window of an incremental run. Window starts at the watermark stored by the previous successful run, or at
+ * the start of configured from date for the first run, and ends at the current time less configured delay, so late
+ * arriving events are exported by the next run. Watermark is stored as epoch seconds in a file of any Hadoop file
+ * system.
+ */
+public class MixPanelWatermark {
+  private final long startTime;
+  private final long endTime;
+
+  public MixPanelWatermark(long startTime, long endTime) {
+    this.startTime = startTime;
+    this.endTime = endTime;
+  }
+
+  /**
+   * Computes window of the current run.
+   *
+   * @param nowSeconds current time in epoch seconds
+   */
+  public static MixPanelWatermark getWindow(MixPanelBatchSourceConfig config, long nowSeconds) throws IOException {
+    ZoneId zone = config.getTimeZone();
+    Long watermark = read(new Path(config.getWatermarkPath()));
+    long startTime = watermark == null
+      ? LocalDate.parse(config.getFromDate()).atStartOfDay(zone).toEpochSecond() : watermark;
+    long endTime = nowSeconds - config.getWatermarkDelayMinutes() * 60L;
+    String toDate = config.getToDate();
+    if (toDate != null && !toDate.isEmpty()) {
+      endTime = Math.min(endTime, LocalDate.parse(toDate).plusDays(1).atStartOfDay(zone).toEpochSecond());
+    }
+    return new MixPanelWatermark(startTime, Math.max(startTime, endTime));
+  }
+
+  /**
+   * Returns inclusive window start in epoch seconds.
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Returns exclusive window end in epoch seconds, stored as watermark once the run succeeds.
+   */
+  public long getEndTime() {
+    return endTime;
+  }
+
+  public boolean isEmpty() {
+    return startTime >= endTime;
+  }
+
+  /**
+   * Returns first export date of the window in time zone of the project.
+   */
+  public String getFromDate(ZoneId zone) {
+    return ZonedDateTime.ofInstant(Instant.ofEpochSecond(startTime), zone).toLocalDate().toString();
+  }
+
+  /**
+   * Returns last export date of the window in time zone of the project.
+   */
+  public String getToDate(ZoneId zone) {
+    long lastSecond = Math.max(startTime, endTime - 1);
+    return ZonedDateTime.ofInstant(Instant.ofEpochSecond(lastSecond), zone).toLocalDate().toString();
+  }
+
+  @Nullable
+  static Long read(Path path) throws IOException {
+    FileSystem fileSystem = path.getFileSystem(new Configuration());
+    if (!fileSystem.exists(path)) {
+      return null;
+    }
+    try (FSDataInputStream inputStream = fileSystem.open(path)) {
+      String value = IOUtils.toString(inputStream, Charsets.UTF_8).trim();
+      try {
+        return Long.parseLong(value);
+      } catch (NumberFormatException e) {
+        throw new IOException(String.format("Invalid watermark '%s' in '%s'.", value, path));
+      }
+    }
+  }
+
+  /**
+   * Stores end of the window as watermark for the next run.
+   */
+  public void write(String watermarkPath) throws IOException {
+    Path path = new Path(watermarkPath);
+    Configuration conf = new Configuration();
+    FileSystem fileSystem = path.getFileSystem(conf);
+    // write to temporary file first, so failure never leaves partially written watermark
+    Path tmpPath = new Path(path.getParent(), "." + path.getName() + "." + System.nanoTime());
+    try (FSDataOutputStream outputStream = fileSystem.create(tmpPath, true)) {
+      outputStream.write(Long.toString(endTime).getBytes(Charsets.UTF_8));
+    }
+    // previous watermark is replaced in one step, so it is never lost if the run fails in between
+    try {
+      FileContext.getFileContext(fileSystem.getUri(), conf).rename(tmpPath, path, Options.Rename.OVERWRITE);
+    } catch (IOException e) {
+      fileSystem.delete(tmpPath, false);
+      throw new IOException(String.format("Failed to write watermark to '%s'.", path), e);
+    }
+  }
+}
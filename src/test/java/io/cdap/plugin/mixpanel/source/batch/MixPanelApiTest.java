@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import org.apache.http.message.BasicHeader;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+public class MixPanelApiTest {
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(
+    WireMockConfiguration.wireMockConfig().dynamicPort()
+  );
+
+  @Test
+  public void testGetCompressedRawEvents() throws IOException {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      body.append(String.format("{\"event\":\"Event\",\"properties\":{\"time\":%d}}\n", i));
+    }
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream outputStream = new GZIPOutputStream(compressed)) {
+      outputStream.write(body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+        .withHeader("Accept-Encoding", WireMock.containing("gzip"))
+        .willReturn(WireMock.aResponse()
+                      .withHeader("Content-Encoding", "gzip")
+                      .withBody(compressed.toByteArray()))
+    );
+
+    String url = String.format("http://localhost:%d/api/2.0/export/", wireMockRule.port());
+    List<String> events = new ArrayList<>();
+    try (MixPanelApi.RawEventsIterator iterator = new MixPanelApi("secret", url, url)
+      .getRawEvents(Collections.emptyList())) {
+      iterator.forEachRemaining(events::add);
+      Assert.assertEquals(compressed.size(), iterator.getCompressedBytes());
+      Assert.assertEquals(body.length(), iterator.getUncompressedBytes());
+    }
+    Assert.assertEquals(1000, events.size());
+    Assert.assertEquals("{\"event\":\"Event\",\"properties\":{\"time\":999}}", events.get(999));
+  }
+
+  @Test
+  public void testRetryThrottledRequest() {
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/events/properties/top/"))
+        .inScenario("throttling")
+        .whenScenarioStateIs(Scenario.STARTED)
+        .willReturn(WireMock.aResponse().withStatus(429).withHeader("Retry-After", "0"))
+        .willSetStateTo("throttled")
+    );
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/events/properties/top/"))
+        .inScenario("throttling")
+        .whenScenarioStateIs("throttled")
+        .willReturn(WireMock.aResponse().withBody("{\"field\":{}}"))
+    );
+
+    String url = String.format("http://localhost:%d/", wireMockRule.port());
+    Assert.assertEquals(Collections.singleton("field"),
+                        new HashSet<>(new MixPanelApi("secret", url, url).getEventTopFields("event")));
+    WireMock.verify(2, WireMock.postRequestedFor(WireMock.urlMatching("/api/2.0/events/properties/top/")));
+  }
+
+  @Test
+  public void testFailAfterRetries() {
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/events/properties/top/"))
+        .willReturn(WireMock.aResponse().withStatus(503).withHeader("Retry-After", "0"))
+    );
+
+    String url = String.format("http://localhost:%d/", wireMockRule.port());
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setApiSecret("secret")
+      .setMixPanelRestApiUrl(url)
+      .setMixPanelDataUrl(url)
+      .setMaxRetries(2)
+      .build();
+    try {
+      new MixPanelApi(config).getEventTopFields("event");
+      Assert.fail("request should fail after retries");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().contains("code: 503"));
+    }
+    WireMock.verify(3, WireMock.postRequestedFor(WireMock.urlMatching("/api/2.0/events/properties/top/")));
+  }
+
+  @Test
+  public void testRetryDelay() throws IOException {
+    MixPanelApi api = new MixPanelApi("secret", "http://localhost/", "http://localhost/");
+    for (int attempt = 0; attempt < 10; attempt++) {
+      long delayMillis = api.getRetryDelayMillis(attempt, null);
+      Assert.assertTrue(delayMillis >= 0 && delayMillis <= Math.min(60000, 1000L << attempt));
+    }
+    Assert.assertTrue(api.getRetryDelayMillis(0, new BasicHeader("Retry-After", "120")) >= 120000);
+
+    // requested delay is capped, longer delays fail instead of blocking the reader
+    api = new MixPanelApi(MixPanelBatchSourceConfig.builder()
+                            .setApiSecret("secret")
+                            .setMaxRetryAfterSeconds(120)
+                            .build());
+    Assert.assertTrue(api.getRetryDelayMillis(5, new BasicHeader("Retry-After", "120")) <= 120000);
+    for (String retryAfter : new String[] {"121", "99999999999999999999", "Wed, 21 Oct 2099 07:28:00 GMT"}) {
+      try {
+        api.getRetryDelayMillis(0, new BasicHeader("Retry-After", retryAfter));
+        Assert.fail(String.format("Retry after '%s' is not rejected.", retryAfter));
+      } catch (IOException e) {
+        Assert.assertTrue(e.getMessage().contains("exceeds max retry after delay of 120 seconds"));
+      }
+    }
+  }
+
+  @Test
+  public void testRateLimiter() {
+    MixPanelRateLimiter rateLimiter = new MixPanelRateLimiter(3600);
+    for (int i = 0; i < 60; i++) {
+      Assert.assertEquals(0, rateLimiter.reserve());
+    }
+    long waitNanos = rateLimiter.reserve();
+    Assert.assertTrue(waitNanos > 0 && waitNanos <= TimeUnit.SECONDS.toNanos(1));
+  }
+}
@@ -23,6 +23,7 @@ import io.cdap.cdap.etl.mock.validation.MockFailureCollector;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -68,6 +69,48 @@ public class MixPanelBatchSourceConfigTest {
     assertFieldValidationError(failureCollector, MixPanelBatchSourceConfig.PROPERTY_TO_DATE);
   }
 
+  @Test
+  public void testEventPropertiesWithoutSchemaByEvents() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("1234-11-11")
+      .setToDate("2345-11-11")
+      .setReferenceName("testReference")
+      .setSchemaByEvents("off")
+      .setEventProperties("$os,plan")
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertFieldValidationError(failureCollector, MixPanelBatchSourceConfig.PROPERTY_EVENT_PROPERTIES);
+    Assert.assertEquals(Arrays.asList("$os", "plan"), config.getEventProperties());
+
+    // padding and empty entries are ignored
+    config = MixPanelBatchSourceConfig.builder()
+      .setSchemaByEvents("off")
+      .setEventProperties(" $os, plan ,, ")
+      .build();
+    Assert.assertEquals(Arrays.asList("$os", "plan"), config.getEventProperties());
+  }
+
+  @Test
+  public void testInvalidSampling() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("1234-11-11")
+      .setToDate("2345-11-11")
+      .setReferenceName("testReference")
+      .setSchemaByEvents("off")
+      .setLocalFilter("$os")
+      .setSamplingRate(0.0)
+      .setSamplingKey("time")
+      .build();
+
+    MockFailureCollector failureCollector = new MockFailureCollector(MOCK_STAGE);
+    config.validate(failureCollector);
+    assertFieldValidationError(failureCollector, MixPanelBatchSourceConfig.PROPERTY_LOCAL_FILTER,
+                               MixPanelBatchSourceConfig.PROPERTY_SAMPLING_RATE,
+                               MixPanelBatchSourceConfig.PROPERTY_SAMPLING_KEY);
+  }
+
   @Test
   public void testInvalidUrl() {
     MixPanelBatchSourceConfig invalidUrl = MixPanelBatchSourceConfig.builder()
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+public class MixPanelEventFilterTest {
+  private static final String EVENT = "{\"event\":\"Plan Upgraded\",\"properties\":{\"distinct_id\":\"user 1\","
+    + "\"nested\":{\"$os\":\"Windows\"},\"$o\\u0073\":\"Linux\",\"plan\":\"pro \\\"plus\\\"\",\"seats\":3,"
+    + "\"is_paid\":true}}";
+
+  @Test
+  public void testConditions() {
+    Assert.assertTrue(accept("$os=Linux", EVENT));
+    Assert.assertTrue(accept("$os=Linux,seats=3,is_paid=true", EVENT));
+    Assert.assertTrue(accept("plan=pro \"plus\"", EVENT));
+    // nested properties are not matched
+    Assert.assertFalse(accept("$os=Windows", EVENT));
+    Assert.assertFalse(accept("$os=Linux,seats!=3", EVENT));
+    Assert.assertFalse(accept("seats=\"3\"", EVENT));
+    // missing property matches only not equals condition
+    Assert.assertFalse(accept("missing=", EVENT));
+    Assert.assertTrue(accept("missing!=free", EVENT));
+    Assert.assertFalse(accept("$os=Linux", "{\"event\":\"No properties\"}"));
+    // event name is matched at the top level, even if it follows properties
+    Assert.assertTrue(accept("event=Plan Upgraded", EVENT));
+    Assert.assertTrue(accept("event=Signup", "{\"properties\":{\"event\":\"Other\"},\"event\":\"Signup\"}"));
+    Assert.assertFalse(accept("event=Signup,$os=Linux", EVENT));
+    Assert.assertTrue(accept("event!=Signup,$os=Linux", EVENT));
+    Assert.assertFalse(accept("event=Other", "{\"properties\":{\"event\":\"Other\"},\"event\":\"Signup\"}"));
+    // malformed events are left to the parser
+    Assert.assertTrue(accept("$os=Windows", "{\"properties\":{\"$os\":\"Linux}}"));
+  }
+
+  @Test
+  public void testParseConditions() {
+    Assert.assertEquals("[$os=Linux, plan!=free, url=a=b]",
+                        MixPanelEventFilter.parseConditions("$os=Linux,plan!=free,url=a=b").toString());
+    Assert.assertTrue(MixPanelEventFilter.parseConditions(null).isEmpty());
+    // spaces around names and values are ignored
+    Assert.assertEquals("[$os=Linux, plan!=free]",
+                        MixPanelEventFilter.parseConditions(" $os = Linux , plan != free ").toString());
+    Assert.assertTrue(accept("event = Plan Upgraded, $os= Linux", EVENT));
+    for (String invalid : new String[] {"$os", "=Linux", " =Linux", "$os=Linux,,plan=pro", "$os=Linux, "}) {
+      try {
+        MixPanelEventFilter.parseConditions(invalid);
+        Assert.fail(String.format("Invalid conditions '%s' are parsed.", invalid));
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testSampling() {
+    MixPanelEventFilter filter = new MixPanelEventFilter(Collections.emptyList(), 0.1,
+                                                         MixPanelEventFilter.SAMPLING_KEY_DISTINCT_ID);
+    int accepted = 0;
+    for (int i = 0; i < 10000; i++) {
+      String event = String.format("{\"properties\":{\"time\":%d,\"distinct_id\":\"user %d\"}}", i, i % 1000);
+      byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+      boolean userSampled = filter.accept(bytes, bytes.length);
+      // events of a user are sampled together
+      String otherEvent = String.format("{\"properties\":{\"time\":1,\"distinct_id\":\"user %d\"}}", i % 1000);
+      byte[] otherBytes = otherEvent.getBytes(StandardCharsets.UTF_8);
+      Assert.assertEquals(userSampled, filter.accept(otherBytes, otherBytes.length));
+      accepted += userSampled ? 1 : 0;
+    }
+    Assert.assertTrue("Sampled " + accepted + " events.", accepted > 500 && accepted < 1500);
+  }
+
+  private static boolean accept(String conditions, String event) {
+    MixPanelEventFilter filter = new MixPanelEventFilter(MixPanelEventFilter.parseConditions(conditions), 1,
+                                                         MixPanelEventFilter.SAMPLING_KEY_DISTINCT_ID);
+    byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+    return filter.accept(bytes, bytes.length);
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class MixPanelEventParserTest {
+  private static final Schema SCHEMA = Schema.recordOf(
+    "mixPanelRecord",
+    Schema.Field.of("event_name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("distinct_id", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("time", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("os", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("is_paid", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("tags", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("emoji", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  @Test
+  public void testParse() throws IOException {
+    MixPanelEventParser parser = new MixPanelEventParser(new MixPanelFieldMapping(SCHEMA));
+    Text event = new Text("{\"event\":\"Plan Upgraded\",\"properties\":{\"distinct_id\":\"foo\",\"time\":1518314400,"
+                            + "\"$os\":\"Linux\",\"is_paid\":true,\"tags\":[\"a\",{\"b\":1}],"
+                            + "\"skipped\":{\"nested\":[1,2,3]},\"emoji\":\"😀 ✓\",\"skipped too\":null}}");
+
+    StructuredRecord record = parser.parse(event);
+    Assert.assertEquals("Plan Upgraded", record.get("event_name"));
+    Assert.assertEquals("foo", record.get("distinct_id"));
+    Assert.assertEquals("1518314400", record.get("time"));
+    Assert.assertEquals("Linux", record.get("os"));
+    Assert.assertEquals("true", record.get("is_paid"));
+    Assert.assertEquals("[\"a\",{\"b\":1}]", record.get("tags"));
+    Assert.assertEquals("😀 ✓", record.get("emoji"));
+
+    // parser is reused between events
+    record = parser.parse(new Text("{\"properties\":{\"time\":null},\"event\":\"Second\"}"));
+    Assert.assertEquals("Second", record.get("event_name"));
+    Assert.assertNull(record.get("time"));
+    Assert.assertNull(record.get("distinct_id"));
+  }
+
+  @Test
+  public void testParseTyped() throws IOException {
+    Schema schema = Schema.recordOf(
+      "mixPanelRecord",
+      Schema.Field.of("time", Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))),
+      Schema.Field.of("count", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+      Schema.Field.of("price", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+      Schema.Field.of("is_paid", Schema.nullableOf(Schema.of(Schema.Type.BOOLEAN))));
+    MixPanelEventParser parser = new MixPanelEventParser(new MixPanelFieldMapping(schema));
+
+    StructuredRecord record = parser.parse(new Text("{\"properties\":{\"time\":1518314400,\"count\":3,"
+                                                      + "\"price\":9.5,\"is_paid\":true}}"));
+    Assert.assertEquals(1518314400000000L, (long) record.get("time"));
+    Assert.assertEquals(3L, (long) record.get("count"));
+    Assert.assertEquals(9.5, record.get("price"), 0);
+    Assert.assertEquals(Boolean.TRUE, record.get("is_paid"));
+
+    // values which do not match inferred type are read as null
+    record = parser.parse(new Text("{\"properties\":{\"count\":\"many\",\"price\":[1],\"is_paid\":1}}"));
+    Assert.assertNull(record.get("count"));
+    Assert.assertNull(record.get("price"));
+    Assert.assertNull(record.get("is_paid"));
+
+    // integral values in other notations fit long field, fractions and overflows do not
+    record = parser.parse(new Text("{\"properties\":{\"count\":2.0}}"));
+    Assert.assertEquals(2L, (long) record.get("count"));
+    record = parser.parse(new Text("{\"properties\":{\"count\":1e3}}"));
+    Assert.assertEquals(1000L, (long) record.get("count"));
+    record = parser.parse(new Text("{\"properties\":{\"count\":2.5}}"));
+    Assert.assertNull(record.get("count"));
+    record = parser.parse(new Text("{\"properties\":{\"count\":1e19}}"));
+    Assert.assertNull(record.get("count"));
+  }
+
+  @Test
+  public void testParseProjected() throws IOException {
+    MixPanelEventParser parser = new MixPanelEventParser(
+      MixPanelFieldMapping.forProperties(SCHEMA, Arrays.asList("$os", "tags", "emoji")));
+    Text event = new Text("{ \"event\" : \"Plan \\\"Upgraded\\\"\", \"properties\" : {\"distinct_id\":\"foo\","
+                            + "\"time\":1518314400, \"skipped\":{\"a\":\"}]\\\\\",\"b\":[{}]},\"os\":\"Windows\","
+                            + "\"$o\\u0073\":\"Linux\\n\\u00e9\",\"is_paid\":true,\"tags\":[\"a\", {\"b\":1}],"
+                            + "\"emoji\":\"😀 ✓\",\"skipped too\":null}}");
+
+    StructuredRecord record = parser.parse(event);
+    Assert.assertEquals("Plan \"Upgraded\"", record.get("event_name"));
+    Assert.assertEquals("foo", record.get("distinct_id"));
+    Assert.assertEquals("1518314400", record.get("time"));
+    // only listed name is mapped, though "os" is escaped to the same field
+    Assert.assertEquals("Linux\né", record.get("os"));
+    Assert.assertNull(record.get("is_paid"));
+    Assert.assertEquals("[\"a\",{\"b\":1}]", record.get("tags"));
+    Assert.assertEquals("😀 ✓", record.get("emoji"));
+
+    record = parser.parse(new Text("{\"properties\":{}}"));
+    Assert.assertNull(record.get("event_name"));
+    Assert.assertNull(record.get("os"));
+
+    try {
+      parser.parse(new Text("{\"properties\":{\"$os\":\"Linux}}"));
+      Assert.fail("Unterminated string is not detected.");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testParseProjectedTyped() throws IOException {
+    Schema schema = Schema.recordOf(
+      "mixPanelRecord",
+      Schema.Field.of("time", Schema.nullableOf(Schema.of(Schema.LogicalType.TIMESTAMP_MICROS))),
+      Schema.Field.of("count", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+      Schema.Field.of("price", Schema.nullableOf(Schema.of(Schema.Type.DOUBLE))),
+      Schema.Field.of("is_paid", Schema.nullableOf(Schema.of(Schema.Type.BOOLEAN))));
+    MixPanelEventParser parser = new MixPanelEventParser(
+      MixPanelFieldMapping.forProperties(schema, Arrays.asList("count", "price", "is_paid")));
+
+    StructuredRecord record = parser.parse(new Text("{\"properties\":{\"time\":1518314400,\"count\":\"3\","
+                                                      + "\"price\":9.5,\"is_paid\":true}}"));
+    Assert.assertEquals(1518314400000000L, (long) record.get("time"));
+    Assert.assertEquals(3L, (long) record.get("count"));
+    Assert.assertEquals(9.5, record.get("price"), 0);
+    Assert.assertEquals(Boolean.TRUE, record.get("is_paid"));
+
+    record = parser.parse(new Text("{\"properties\":{\"count\":\"many\",\"price\":[1],\"is_paid\":1}}"));
+    Assert.assertNull(record.get("count"));
+    Assert.assertNull(record.get("price"));
+    Assert.assertNull(record.get("is_paid"));
+  }
+}
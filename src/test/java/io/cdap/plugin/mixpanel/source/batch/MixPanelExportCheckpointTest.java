@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class MixPanelExportCheckpointTest {
+  @Test
+  public void testFindTime() {
+    Assert.assertEquals(1518314400L, findTime("{\"event\":\"e\",\"properties\":{\"time\":1518314400,\"a\":1}}"));
+    Assert.assertEquals(15L, findTime("{\"event\":\"e\", \"properties\" : {\"x\":\"\\\"time\\\":1\", \"time\" : 15}}"));
+    Assert.assertEquals(MixPanelEventScanner.NOT_FOUND, findTime("{\"event\":\"time\",\"properties\":{}}"));
+    Assert.assertEquals(MixPanelEventScanner.NOT_FOUND, findTime("{\"properties\":{\"time\":\"soon\"}}"));
+  }
+
+  @Test
+  public void testSkipEventsConsumedBeforeResume() {
+    MixPanelExportCheckpoint checkpoint = new MixPanelExportCheckpoint();
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":1,\"id\":1}}"));
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":2,\"id\":2}}"));
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":2,\"id\":3}}"));
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":2,\"id\":3}}"));
+    Assert.assertEquals(2L, checkpoint.getLastTime());
+
+    checkpoint.resume();
+    Assert.assertFalse(accept(checkpoint, "{\"properties\":{\"time\":2,\"id\":2}}"));
+    Assert.assertFalse(accept(checkpoint, "{\"properties\":{\"time\":2,\"id\":3}}"));
+    Assert.assertFalse(accept(checkpoint, "{\"properties\":{\"time\":2,\"id\":3}}"));
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":2,\"id\":4}}"));
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":3,\"id\":5}}"));
+    Assert.assertEquals(6, checkpoint.getEvents());
+    Assert.assertTrue(checkpoint.isResumable());
+  }
+
+  @Test
+  public void testNotResumableIfUnordered() {
+    MixPanelExportCheckpoint checkpoint = new MixPanelExportCheckpoint();
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":2}}"));
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":1}}"));
+    Assert.assertFalse(checkpoint.isResumable());
+    Assert.assertTrue(accept(checkpoint, "{\"properties\":{\"time\":1}}"));
+    Assert.assertEquals(3, checkpoint.getEvents());
+  }
+
+  private static long findTime(String event) {
+    byte[] bytes = ("  " + event).getBytes(StandardCharsets.UTF_8);
+    return MixPanelEventScanner.findTime(bytes, 2, bytes.length - 2);
+  }
+
+  private static boolean accept(MixPanelExportCheckpoint checkpoint, String event) {
+    byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+    return checkpoint.accept(bytes, 0, bytes.length);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class MixPanelHttpClientPoolTest {
+  @Test
+  public void testClientSharedBySettings() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setMaxConnections(4)
+      .setKeepAliveSeconds(10)
+      .build();
+    MixPanelHttpClientPool.Settings settings = MixPanelHttpClientPool.Settings.fromConfig(config);
+    MixPanelHttpClientPool.Settings sameSettings = new MixPanelHttpClientPool.Settings(
+      4, MixPanelHttpClientPool.Settings.DEFAULT_CONNECT_TIMEOUT_SECONDS,
+      MixPanelHttpClientPool.Settings.DEFAULT_SOCKET_TIMEOUT_SECONDS, 10,
+      MixPanelHttpClientPool.Settings.DEFAULT_SOCKET_BUFFER_SIZE);
+
+    try {
+      Assert.assertSame(MixPanelHttpClientPool.retain(settings), MixPanelHttpClientPool.retain(sameSettings));
+      Assert.assertNotSame(MixPanelHttpClientPool.retain(settings),
+                           MixPanelHttpClientPool.retain(MixPanelHttpClientPool.Settings.getDefault()));
+    } finally {
+      MixPanelHttpClientPool.release(settings);
+      MixPanelHttpClientPool.release(sameSettings);
+      MixPanelHttpClientPool.release(settings);
+      MixPanelHttpClientPool.release(MixPanelHttpClientPool.Settings.getDefault());
+    }
+  }
+
+  @Test
+  public void testClientClosedWhenReleased() {
+    MixPanelHttpClientPool.Settings settings = new MixPanelHttpClientPool.Settings(
+      2, MixPanelHttpClientPool.Settings.DEFAULT_CONNECT_TIMEOUT_SECONDS,
+      MixPanelHttpClientPool.Settings.DEFAULT_SOCKET_TIMEOUT_SECONDS, 5,
+      MixPanelHttpClientPool.Settings.DEFAULT_SOCKET_BUFFER_SIZE);
+    CloseableHttpClient client = MixPanelHttpClientPool.retain(settings);
+    MixPanelHttpClientPool.retain(settings);
+
+    MixPanelHttpClientPool.release(settings);
+    assertOpen(client);
+
+    MixPanelHttpClientPool.release(settings);
+    assertClosed(client);
+    Assert.assertNotSame(client, MixPanelHttpClientPool.retain(settings));
+    MixPanelHttpClientPool.release(settings);
+  }
+
+  @Test
+  public void testClientClosedWhenApiClosed() {
+    MixPanelHttpClientPool.Settings settings = new MixPanelHttpClientPool.Settings(
+      3, MixPanelHttpClientPool.Settings.DEFAULT_CONNECT_TIMEOUT_SECONDS,
+      MixPanelHttpClientPool.Settings.DEFAULT_SOCKET_TIMEOUT_SECONDS, 5,
+      MixPanelHttpClientPool.Settings.DEFAULT_SOCKET_BUFFER_SIZE);
+    CloseableHttpClient client = MixPanelHttpClientPool.retain(settings);
+    MixPanelApi api = new MixPanelApi("secret", "http://localhost/", "http://localhost/", settings);
+
+    // api keeps client open after the stage released it
+    MixPanelHttpClientPool.release(settings);
+    assertOpen(client);
+
+    api.close();
+    api.close();
+    assertClosed(client);
+  }
+
+  private static void assertOpen(CloseableHttpClient client) {
+    try {
+      client.execute(new HttpGet("http://localhost:1")).close();
+    } catch (IllegalStateException e) {
+      throw new AssertionError("Client used by others is closed.", e);
+    } catch (IOException e) {
+      // expected, nothing listens on the port
+    }
+  }
+
+  private static void assertClosed(CloseableHttpClient client) {
+    try {
+      client.execute(new HttpGet("http://localhost:1")).close();
+      Assert.fail("Released client is not closed.");
+    } catch (IllegalStateException | IOException e) {
+      // expected, connection pool is shut down
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MixPanelLineReaderTest {
+  @Test
+  public void testReadLines() throws IOException {
+    String data = "{\"event\":\"first\"}\n\n{\"event\":\"ünïcødé ✓\"}\r\n{\"event\":\"long line without newline\"}";
+    for (int bufferSize : new int[]{1, 4, 16, 1024}) {
+      Assert.assertEquals(Arrays.asList("{\"event\":\"first\"}", "{\"event\":\"ünïcødé ✓\"}",
+                                        "{\"event\":\"long line without newline\"}"),
+                          readLines(data, bufferSize));
+    }
+  }
+
+  @Test
+  public void testEmptyStream() throws IOException {
+    Assert.assertTrue(readLines("", 16).isEmpty());
+    Assert.assertTrue(readLines("\n\r\n", 16).isEmpty());
+  }
+
+  @Test
+  public void testLineSlice() throws IOException {
+    byte[] data = "abc\ndef\n".getBytes(StandardCharsets.UTF_8);
+    MixPanelLineReader reader = new MixPanelLineReader(new ByteArrayInputStream(data), 1024);
+    Assert.assertTrue(reader.nextLine());
+    Assert.assertTrue(reader.nextLine());
+    Assert.assertEquals("def", new String(reader.getBuffer(), reader.getLineStart(), reader.getLineLength(),
+                                          StandardCharsets.UTF_8));
+    Assert.assertFalse(reader.nextLine());
+  }
+
+  private static List<String> readLines(String data, int bufferSize) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (MixPanelLineReader reader = new MixPanelLineReader(
+      new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)), bufferSize)) {
+      while (reader.nextLine()) {
+        lines.add(reader.getLine());
+      }
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import io.cdap.cdap.api.metrics.Metrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class MixPanelMetricsTest {
+  @Test
+  public void testHistogramBuckets() {
+    Assert.assertEquals(0, MixPanelMetrics.Histogram.getBucket(0));
+    Assert.assertEquals(0, MixPanelMetrics.Histogram.getBucket(100));
+    Assert.assertEquals(1, MixPanelMetrics.Histogram.getBucket(101));
+    Assert.assertEquals("inf", MixPanelMetrics.Histogram.getBucketName(MixPanelMetrics.Histogram.getBucket(60000)));
+  }
+
+  @Test
+  public void testPublish() {
+    MixPanelMetrics sourceMetrics = new MixPanelMetrics();
+    sourceMetrics.requests.add(3);
+    sourceMetrics.parseNanos.add(TimeUnit.MICROSECONDS.toNanos(1500));
+    sourceMetrics.requestLatency.recordNanos(TimeUnit.MILLISECONDS.toNanos(200));
+    sourceMetrics.requestLatency.recordNanos(TimeUnit.MILLISECONDS.toNanos(40000));
+    RecordingMetrics metrics = new RecordingMetrics();
+    sourceMetrics.publish(metrics);
+    Assert.assertEquals(3L, (long) metrics.counts.get("requests"));
+    Assert.assertEquals(1L, (long) metrics.counts.get("parse.time.ms"));
+    Assert.assertEquals(2L, (long) metrics.counts.get("request.latency.count"));
+    Assert.assertEquals(40200L, (long) metrics.counts.get("request.latency.total.ms"));
+    Assert.assertEquals(1L, (long) metrics.counts.get("request.latency.le.250ms"));
+    Assert.assertEquals(1L, (long) metrics.counts.get("request.latency.le.inf"));
+    Assert.assertNull(metrics.counts.get("request.latency.le.100ms"));
+
+    // increments are published once, fractions of unit are carried over
+    sourceMetrics.parseNanos.add(TimeUnit.MICROSECONDS.toNanos(500));
+    metrics = new RecordingMetrics();
+    sourceMetrics.publish(metrics);
+    Assert.assertNull(metrics.counts.get("requests"));
+    Assert.assertEquals(1L, (long) metrics.counts.get("parse.time.ms"));
+  }
+
+  @Test
+  public void testMetricsSharedByStage() {
+    MixPanelMetrics stageMetrics = MixPanelMetrics.retain("ns:pipeline:MixPanel:1");
+    MixPanelMetrics readerMetrics = MixPanelMetrics.retain("ns:pipeline:MixPanel:1");
+    MixPanelMetrics otherStageMetrics = MixPanelMetrics.retain("ns:pipeline:MixPanel2:1");
+    try {
+      Assert.assertSame(stageMetrics, readerMetrics);
+      Assert.assertNotSame(stageMetrics, otherStageMetrics);
+
+      // increments of a stage are never published by other stages
+      readerMetrics.eventsRead.add(5);
+      RecordingMetrics metrics = new RecordingMetrics();
+      otherStageMetrics.publish(metrics);
+      Assert.assertNull(metrics.counts.get("events.read"));
+      stageMetrics.publish(metrics);
+      Assert.assertEquals(5L, (long) metrics.counts.get("events.read"));
+    } finally {
+      MixPanelMetrics.release("ns:pipeline:MixPanel:1");
+      MixPanelMetrics.release("ns:pipeline:MixPanel2:1");
+    }
+
+    // metrics released by all users are discarded
+    MixPanelMetrics.release("ns:pipeline:MixPanel:1");
+    Assert.assertNotSame(stageMetrics, MixPanelMetrics.retain("ns:pipeline:MixPanel:1"));
+    MixPanelMetrics.release("ns:pipeline:MixPanel:1");
+  }
+
+  private static class RecordingMetrics implements Metrics {
+    private final Map<String, Long> counts = new HashMap<>();
+
+    @Override
+    public void count(String name, int delta) {
+      counts.merge(name, (long) delta, Long::sum);
+    }
+
+    @Override
+    public void gauge(String name, long value) {
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.matching.StringValuePattern;
+import org.apache.hadoop.io.Text;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MixPanelMultiStreamExportTest {
+  // 2019-10-01 00:00 UTC
+  private static final long DAY_START = 1569888000L;
+  private static final long HOUR = 3600;
+  private static final int EVENTS_PER_WINDOW = 2000;
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(
+    WireMockConfiguration.wireMockConfig().dynamicPort()
+  );
+
+  @Test
+  public void testWindows() {
+    List<MixPanelSplit> windows = MixPanelMultiStreamExport.getWindows(
+      new MixPanelSplit("2019-10-01", "2019-10-02"), ZoneOffset.UTC, 600);
+    Assert.assertEquals(6, windows.size());
+    Assert.assertEquals("2019-10-01", windows.get(2).getFromDate());
+    Assert.assertEquals("2019-10-01", windows.get(2).getToDate());
+    Assert.assertEquals(DAY_START + 20 * HOUR, windows.get(2).getStartTime());
+    // first and last windows of the day are open
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, windows.get(0).getStartTime());
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, windows.get(2).getEndTime());
+    Assert.assertEquals("2019-10-02", windows.get(3).getFromDate());
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, windows.get(3).getStartTime());
+    Assert.assertEquals(DAY_START + 34 * HOUR, windows.get(3).getEndTime());
+
+    // windows are narrowed to the window of the split
+    windows = MixPanelMultiStreamExport.getWindows(
+      new MixPanelSplit("2019-10-01", DAY_START + 5 * HOUR, DAY_START + 11 * HOUR), ZoneOffset.UTC, 360);
+    Assert.assertEquals(2, windows.size());
+    Assert.assertEquals(DAY_START + 5 * HOUR, windows.get(0).getStartTime());
+    Assert.assertEquals(DAY_START + 6 * HOUR, windows.get(0).getEndTime());
+    Assert.assertEquals(DAY_START + 6 * HOUR, windows.get(1).getStartTime());
+    Assert.assertEquals(DAY_START + 11 * HOUR, windows.get(1).getEndTime());
+
+    // days are aligned with the configured time zone
+    windows = MixPanelMultiStreamExport.getWindows(
+      new MixPanelSplit("2019-10-01", "2019-10-01"), ZoneId.of("America/Los_Angeles"), 720);
+    Assert.assertEquals(2, windows.size());
+    Assert.assertEquals(DAY_START + 19 * HOUR, windows.get(0).getEndTime());
+  }
+
+  @Test
+  public void testDefaultWindowMinutes() {
+    // two windows per stream
+    Assert.assertEquals(180, MixPanelMultiStreamExport.getDefaultWindowMinutes(
+      new MixPanelSplit("2019-10-01", "2019-10-01"), ZoneOffset.UTC, 4));
+    Assert.assertEquals(60, MixPanelMultiStreamExport.getDefaultWindowMinutes(
+      new MixPanelSplit("2019-10-01", DAY_START + 5 * HOUR, DAY_START + 11 * HOUR), ZoneOffset.UTC, 3));
+    // long split is exported day by day instead of by many short windows
+    List<MixPanelSplit> windows = MixPanelMultiStreamExport.getWindows(
+      new MixPanelSplit("2019-10-01", "2019-10-30"), ZoneOffset.UTC,
+      MixPanelMultiStreamExport.getDefaultWindowMinutes(new MixPanelSplit("2019-10-01", "2019-10-30"),
+                                                        ZoneOffset.UTC, 4));
+    Assert.assertEquals(30, windows.size());
+  }
+
+  @Test
+  public void testWindowsInOtherTimeZone() throws IOException {
+    // project exports 2019-10-01 of UTC, but windows are aligned with the day in Los Angeles, starting at 07:00 UTC
+    String endCondition = String.format("%%3C+datetime%%28%d%%29", DAY_START + 19 * HOUR);
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+        .withRequestBody(WireMock.containing(endCondition))
+        .withRequestBody(WireMock.notMatching(".*%3E%3D.*"))
+        .willReturn(WireMock.aResponse().withBody(String.format("{\"event\":\"e\",\"properties\":{\"time\":%d}}\n",
+                                                                DAY_START + HOUR)))
+    );
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+        .withRequestBody(WireMock.containing(getStartCondition(DAY_START + 19 * HOUR)))
+        .withRequestBody(WireMock.notMatching(".*%3C.*"))
+        .willReturn(WireMock.aResponse().withBody(String.format("{\"event\":\"e\",\"properties\":{\"time\":%d}}\n",
+                                                                DAY_START + 23 * HOUR)))
+    );
+
+    MixPanelBatchSourceConfig config = getConfig();
+    List<MixPanelSplit> windows = MixPanelMultiStreamExport.getWindows(
+      new MixPanelSplit("2019-10-01", "2019-10-01"), ZoneId.of("America/Los_Angeles"), 720);
+    List<Long> times = new ArrayList<>();
+    try (MixPanelExport export = new MixPanelMultiStreamExport(new MixPanelApi(config), config, windows, 2, 1, true,
+                                                               new MixPanelMetrics())) {
+      Text event = new Text();
+      while (export.next(event)) {
+        times.add(MixPanelEventScanner.findTime(event.getBytes(), 0, event.getLength()));
+      }
+    }
+    // events before the day in Los Angeles starts are read by the first window, exactly once
+    Assert.assertEquals(Arrays.asList(DAY_START + HOUR, DAY_START + 23 * HOUR), times);
+  }
+
+  @Test
+  public void testUnordered() throws IOException {
+    List<Long> times = read(false);
+    Assert.assertEquals(4 * EVENTS_PER_WINDOW, times.size());
+    List<Long> sorted = new ArrayList<>(times);
+    sorted.sort(Long::compare);
+    Assert.assertEquals(getExpectedTimes(), sorted);
+  }
+
+  @Test
+  public void testOrdered() throws IOException {
+    Assert.assertEquals(getExpectedTimes(), read(true));
+  }
+
+  @Test
+  public void testFailure() throws IOException {
+    stubWindows();
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+        .withRequestBody(WireMock.containing(getStartCondition(DAY_START + 12 * HOUR)))
+        .willReturn(WireMock.aResponse().withStatus(400).withBody("Invalid where expression."))
+    );
+    MixPanelBatchSourceConfig config = getConfig();
+    try (MixPanelExport export = new MixPanelMultiStreamExport(new MixPanelApi(config), config, getWindows(), 2, 1,
+                                                               true, new MixPanelMetrics())) {
+      Text event = new Text();
+      int events = 0;
+      try {
+        while (export.next(event)) {
+          events++;
+        }
+        Assert.fail("Failure of a stream is not propagated.");
+      } catch (IOException e) {
+        // events of windows before the failed one are read
+        Assert.assertEquals(2 * EVENTS_PER_WINDOW, events);
+      }
+    }
+  }
+
+  private List<Long> read(boolean ordered) throws IOException {
+    stubWindows();
+    MixPanelBatchSourceConfig config = getConfig();
+    List<Long> times = new ArrayList<>();
+    // buffer smaller than a batch, so streams wait for the reader
+    try (MixPanelExport export = new MixPanelMultiStreamExport(new MixPanelApi(config), config, getWindows(), 3, 1,
+                                                               ordered, new MixPanelMetrics())) {
+      Text event = new Text();
+      while (export.next(event)) {
+        times.add(MixPanelEventScanner.findTime(event.getBytes(), 0, event.getLength()));
+      }
+      Assert.assertEquals(1, export.getProgress(), 0);
+      Assert.assertEquals(times.size(), export.getEvents());
+    }
+    return times;
+  }
+
+  private List<MixPanelSplit> getWindows() {
+    return MixPanelMultiStreamExport.getWindows(new MixPanelSplit("2019-10-01", "2019-10-01"), ZoneOffset.UTC, 360);
+  }
+
+  private MixPanelBatchSourceConfig getConfig() {
+    String url = String.format("http://localhost:%d/api/2.0/export/", wireMockRule.port());
+    return MixPanelBatchSourceConfig.builder()
+      .setApiSecret("secret")
+      .setMixPanelDataUrl(url)
+      .setMixPanelRestApiUrl(url)
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-01")
+      .setMaxRetries(0)
+      .build();
+  }
+
+  /**
+   * Every window of 6 hours exports its own events, the first window responds last.
+   */
+  private void stubWindows() {
+    for (int window = 0; window < 4; window++) {
+      long start = DAY_START + window * 6 * HOUR;
+      StringBuilder body = new StringBuilder();
+      for (int i = 0; i < EVENTS_PER_WINDOW; i++) {
+        body.append(String.format("{\"event\":\"e\",\"properties\":{\"time\":%d,\"padding\":\"%0100d\"}}\n",
+                                  start + i, 0));
+      }
+      // first window of the day has no start condition
+      StringValuePattern condition = window == 0
+        ? WireMock.notMatching(".*%3E%3D.*") : WireMock.containing(getStartCondition(start));
+      WireMock.stubFor(
+        WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+          .withRequestBody(condition)
+          .willReturn(WireMock.aResponse().withBody(body.toString()).withFixedDelay(window == 0 ? 500 : 0))
+      );
+    }
+  }
+
+  private static String getStartCondition(long start) {
+    // url encoded properties["time"] >= datetime(start)
+    return String.format("%%3E%%3D+datetime%%28%d%%29", start);
+  }
+
+  private static List<Long> getExpectedTimes() {
+    List<Long> times = new ArrayList<>();
+    for (int window = 0; window < 4; window++) {
+      for (int i = 0; i < EVENTS_PER_WINDOW; i++) {
+        times.add(DAY_START + window * 6 * HOUR + i);
+      }
+    }
+    return times;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.gson.Gson;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class MixPanelParsingRecordReaderTest {
+  private static final Schema SCHEMA = Schema.recordOf(
+    "mixPanelRecord",
+    Schema.Field.of("event_name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("index", Schema.nullableOf(Schema.of(Schema.Type.LONG))),
+    Schema.Field.of("padding", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+  private static final int EVENTS = 5000;
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(
+    WireMockConfiguration.wireMockConfig().dynamicPort()
+  );
+
+  @Test
+  public void testOrder() throws IOException, InterruptedException {
+    StringBuilder body = new StringBuilder();
+    for (int i = 0; i < EVENTS; i++) {
+      // events of varying size, so batches are cut at different events
+      body.append(String.format("{\"event\":\"e\",\"properties\":{\"time\":1569909600,\"index\":%d,"
+                                  + "\"padding\":\"%0" + (1 + i % 300) + "d\"}}\n", i, 0));
+    }
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+        .willReturn(WireMock.aResponse().withBody(body.toString()))
+    );
+
+    String url = String.format("http://localhost:%d/api/2.0/export/", wireMockRule.port());
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setApiSecret("secret")
+      .setMixPanelDataUrl(url)
+      .setMixPanelRestApiUrl(url)
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-01")
+      .setSchemaByEvents("on")
+      .setParserThreads(3)
+      .build();
+    Configuration conf = new Configuration();
+    conf.set(MixPanelInputFormatProvider.PROPERTY_CONFIG_JSON, new Gson().toJson(config));
+    conf.set(MixPanelInputFormatProvider.PROPERTY_SCHEMA, SCHEMA.toString());
+    TaskAttemptContext taskAttemptContext = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+    MixPanelSplit split = new MixPanelSplit("2019-10-01", "2019-10-01");
+
+    RecordReader<?, ?> recordReader = new MixPanelInputFormat().createRecordReader(split, taskAttemptContext);
+    Assert.assertTrue(recordReader instanceof MixPanelParsingRecordReader);
+    try {
+      recordReader.initialize(split, taskAttemptContext);
+      int records = 0;
+      while (recordReader.nextKeyValue()) {
+        StructuredRecord record = (StructuredRecord) recordReader.getCurrentValue();
+        Assert.assertEquals("e", record.get("event_name"));
+        Assert.assertEquals(Long.valueOf(records), record.get("index"));
+        Assert.assertEquals(1 + records % 300, record.<String>get("padding").length());
+        records++;
+      }
+      Assert.assertEquals(EVENTS, records);
+      Assert.assertEquals(1, recordReader.getProgress(), 0);
+    } finally {
+      recordReader.close();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Random;
+
+public class MixPanelPrefetchInputStreamTest {
+  @Test
+  public void testReadAhead() throws IOException {
+    byte[] bytes = new byte[1024 * 1024 + 7];
+    new Random(1).nextBytes(bytes);
+    // buffer much smaller than data, so background thread waits for free chunks
+    try (InputStream inputStream = new MixPanelPrefetchInputStream(new ByteArrayInputStream(bytes), 1000,
+                                                                   new MixPanelMetrics())) {
+      Assert.assertEquals(bytes[0] & 0xff, inputStream.read());
+      byte[] rest = IOUtils.toByteArray(inputStream);
+      Assert.assertEquals(bytes.length - 1, rest.length);
+      for (int i = 0; i < rest.length; i++) {
+        Assert.assertEquals(bytes[i + 1], rest[i]);
+      }
+      Assert.assertEquals(-1, inputStream.read());
+    }
+  }
+
+  @Test
+  public void testFailure() throws IOException {
+    InputStream failingStream = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("Connection reset");
+      }
+    };
+    InputStream source = new SequenceInputStream(new ByteArrayInputStream(new byte[] {1, 2, 3}), failingStream);
+    try (InputStream inputStream = new MixPanelPrefetchInputStream(source, 1000, new MixPanelMetrics())) {
+      byte[] buffer = new byte[3];
+      Assert.assertEquals(3, IOUtils.read(inputStream, buffer));
+      Assert.assertArrayEquals(new byte[] {1, 2, 3}, buffer);
+      try {
+        inputStream.read();
+        Assert.fail("Failure of underlying stream is not propagated.");
+      } catch (IOException e) {
+        Assert.assertEquals("Connection reset", e.getMessage());
+      }
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testUncheckedFailure() throws IOException {
+    InputStream failingStream = new InputStream() {
+      @Override
+      public int read() {
+        throw new IllegalStateException("Connection pool shut down");
+      }
+    };
+    try (InputStream inputStream = new MixPanelPrefetchInputStream(failingStream, 1000, new MixPanelMetrics())) {
+      inputStream.read();
+      Assert.fail("Unchecked failure of underlying stream is not propagated.");
+    } catch (IOException e) {
+      Assert.assertEquals("Connection pool shut down", e.getMessage());
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+}
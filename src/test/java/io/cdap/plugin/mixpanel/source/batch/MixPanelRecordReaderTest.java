@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.gson.Gson;
+import io.cdap.cdap.api.metrics.Metrics;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MixPanelRecordReaderTest {
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(
+    WireMockConfiguration.wireMockConfig().dynamicPort()
+  );
+
+  @Test
+  public void testWhereExpression() {
+    MixPanelSplit daySplit = new MixPanelSplit("2019-10-01", "2019-10-01");
+    Assert.assertEquals("", MixPanelRecordReader.getWhereExpression(null, daySplit));
+    Assert.assertEquals("properties[\"mp_lib\"] == \"python\"",
+                        MixPanelRecordReader.getWhereExpression("properties[\"mp_lib\"] == \"python\"", daySplit));
+
+    MixPanelSplit windowSplit = new MixPanelSplit("2019-10-01", 1569909600L, MixPanelSplit.UNBOUNDED);
+    Assert.assertEquals("properties[\"time\"] >= datetime(1569909600)",
+                        MixPanelRecordReader.getWhereExpression("", windowSplit));
+    Assert.assertEquals("(defined (properties[\"plan\"])) and properties[\"time\"] >= datetime(1569909600)",
+                        MixPanelRecordReader.getWhereExpression("defined (properties[\"plan\"])", windowSplit));
+  }
+
+  @Test
+  public void testProgress() throws IOException {
+    StringBuilder body = new StringBuilder();
+    for (long time : new long[] {1569909600L, 1569931200L, 1569952800L}) {
+      body.append(String.format("{\"event\":\"e\",\"properties\":{\"time\":%d}}\n", time));
+    }
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+        .willReturn(WireMock.aResponse().withBody(body.toString()))
+    );
+
+    String url = String.format("http://localhost:%d/api/2.0/export/", wireMockRule.port());
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setApiSecret("secret")
+      .setMixPanelDataUrl(url)
+      .setMixPanelRestApiUrl(url)
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-01")
+      .build();
+    Configuration conf = new Configuration();
+    conf.set(MixPanelInputFormatProvider.PROPERTY_CONFIG_JSON, new Gson().toJson(config));
+
+    try (MixPanelRecordReader recordReader = new MixPanelRecordReader()) {
+      recordReader.initialize(new MixPanelSplit("2019-10-01", "2019-10-01"),
+                              new TaskAttemptContextImpl(conf, new TaskAttemptID()));
+      float progress = recordReader.getProgress();
+      while (recordReader.nextKeyValue()) {
+        Assert.assertTrue(recordReader.getProgress() >= progress);
+        progress = recordReader.getProgress();
+      }
+      Assert.assertEquals(1, recordReader.getProgress(), 0);
+    }
+  }
+
+  @Test
+  public void testMetricsPublishedBeforeClose() throws IOException {
+    StringBuilder body = new StringBuilder();
+    for (long time : new long[] {1569909600L, 1569931200L, 1569952800L}) {
+      body.append(String.format("{\"event\":\"e\",\"properties\":{\"time\":%d}}\n", time));
+    }
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+        .willReturn(WireMock.aResponse().withBody(body.toString()))
+    );
+
+    String url = String.format("http://localhost:%d/api/2.0/export/", wireMockRule.port());
+    for (int streams : new int[] {1, 2}) {
+      MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+        .setApiSecret("secret")
+        .setMixPanelDataUrl(url)
+        .setMixPanelRestApiUrl(url)
+        .setFromDate("2019-10-01")
+        .setToDate("2019-10-01")
+        .setStreamsPerSplit(streams)
+        .setStreamWindowMinutes(720)
+        .build();
+      Configuration conf = new Configuration();
+      conf.set(MixPanelInputFormatProvider.PROPERTY_CONFIG_JSON, new Gson().toJson(config));
+      conf.set(MixPanelInputFormatProvider.PROPERTY_STAGE_KEY, "ns:pipeline:MixPanel:" + streams);
+      MixPanelMetrics stageMetrics = MixPanelMetrics.retain("ns:pipeline:MixPanel:" + streams);
+
+      try (MixPanelRecordReader recordReader = new MixPanelRecordReader()) {
+        recordReader.initialize(new MixPanelSplit("2019-10-01", "2019-10-01"),
+                                new TaskAttemptContextImpl(conf, new TaskAttemptID()));
+        long events = 0;
+        while (recordReader.nextKeyValue()) {
+          events++;
+        }
+        // stage is destroyed and publishes metrics before the reader is closed
+        RecordingMetrics metrics = new RecordingMetrics();
+        stageMetrics.publish(metrics);
+        Assert.assertEquals(streams * 3, events);
+        Assert.assertEquals(events, (long) metrics.counts.get("events.read"));
+        Assert.assertTrue(metrics.counts.get("bytes.received") > 0);
+      } finally {
+        MixPanelMetrics.release("ns:pipeline:MixPanel:" + streams);
+      }
+    }
+  }
+
+  @Test
+  public void testProgressWithinWindow() {
+    // event of 2019-10-01 12:00 UTC is half way through the day
+    Assert.assertEquals(0.5, MixPanelRecordReader.getProgress(1569931200L, 1569888000L, 1569974400L), 0.001);
+    Assert.assertEquals(0.5, MixPanelRecordReader.getProgress(50, 0, 100), 0);
+    Assert.assertEquals(1, MixPanelRecordReader.getProgress(150, 0, 100), 0);
+    Assert.assertEquals(0, MixPanelRecordReader.getProgress(5, 10, 10), 0);
+  }
+
+  private static class RecordingMetrics implements Metrics {
+    private final Map<String, Long> counts = new HashMap<>();
+
+    @Override
+    public void count(String name, int delta) {
+      counts.merge(name, (long) delta, Long::sum);
+    }
+
+    @Override
+    public void gauge(String name, long value) {
+    }
+  }
+}
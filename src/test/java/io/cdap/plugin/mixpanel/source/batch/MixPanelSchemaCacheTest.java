@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+public class MixPanelSchemaCacheTest {
+  private static final String TOP_FIELDS_URL = "/api/2.0/events/properties/top/";
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(
+    WireMockConfiguration.wireMockConfig().dynamicPort()
+  );
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Before
+  @After
+  public void clearCache() {
+    MixPanelSchemaCache.clear();
+  }
+
+  @Test
+  public void testSchemaCachedInMemory() throws IOException {
+    stubTopFields();
+    MixPanelBatchSourceConfig config = getConfigBuilder("secret").setSchemaCacheTtlMinutes(10).build();
+
+    Schema schema = MixPanelSchemaCache.getSchema(config);
+    Assert.assertEquals(schema, MixPanelSchemaCache.getSchema(config));
+    WireMock.verify(1, WireMock.postRequestedFor(WireMock.urlMatching(TOP_FIELDS_URL)));
+
+    // other project is not served from cache
+    MixPanelSchemaCache.getSchema(getConfigBuilder("other secret").setSchemaCacheTtlMinutes(10).build());
+    WireMock.verify(2, WireMock.postRequestedFor(WireMock.urlMatching(TOP_FIELDS_URL)));
+  }
+
+  @Test
+  public void testSchemaCachedInFiles() throws IOException {
+    stubTopFields();
+    MixPanelBatchSourceConfig config = getConfigBuilder("secret")
+      .setSchemaCacheTtlMinutes(10)
+      .setSchemaCachePath(temporaryFolder.getRoot().getAbsolutePath())
+      .build();
+
+    MixPanelSchemaHelper.DiscoveredSchema schema = MixPanelSchemaCache.getDiscoveredSchema(config);
+    MixPanelSchemaCache.clear();
+    MixPanelSchemaHelper.DiscoveredSchema cachedSchema = MixPanelSchemaCache.getCachedSchema(config);
+    Assert.assertNotNull(cachedSchema);
+    Assert.assertEquals(schema.getSchema(), cachedSchema.getSchema());
+    Assert.assertEquals(schema.getPropertyNames(), cachedSchema.getPropertyNames());
+    Assert.assertEquals(schema.getSchema(), MixPanelSchemaCache.getSchema(config));
+    WireMock.verify(1, WireMock.postRequestedFor(WireMock.urlMatching(TOP_FIELDS_URL)));
+  }
+
+  @Test
+  public void testCachedSchemaNotGenerated() throws IOException {
+    stubTopFields();
+    MixPanelBatchSourceConfig config = getConfigBuilder("secret").setSchemaCacheTtlMinutes(10).build();
+
+    Assert.assertNull(MixPanelSchemaCache.getCachedSchema(config));
+    WireMock.verify(0, WireMock.postRequestedFor(WireMock.urlMatching(TOP_FIELDS_URL)));
+  }
+
+  @Test
+  public void testCacheDisabledByDefault() throws IOException {
+    stubTopFields();
+    MixPanelBatchSourceConfig config = getConfigBuilder("secret").build();
+
+    MixPanelSchemaCache.getSchema(config);
+    MixPanelSchemaCache.getSchema(config);
+    WireMock.verify(2, WireMock.postRequestedFor(WireMock.urlMatching(TOP_FIELDS_URL)));
+  }
+
+  private void stubTopFields() throws IOException {
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching(TOP_FIELDS_URL))
+        .willReturn(WireMock.aResponse().withBody(TestHelper.getResource("describe custom event.json")))
+    );
+  }
+
+  private MixPanelBatchSourceConfig.Builder getConfigBuilder(String secret) {
+    return MixPanelBatchSourceConfig.builder()
+      .setMixPanelRestApiUrl(String.format("http://localhost:%d/", wireMockRule.port()))
+      .setApiSecret(secret)
+      .setSchemaByEvents("on")
+      .setEvents("Custom Event");
+  }
+}
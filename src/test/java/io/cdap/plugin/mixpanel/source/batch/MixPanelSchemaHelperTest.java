@@ -3,11 +3,22 @@ package io.cdap.plugin.mixpanel.source.batch;
 import com.github.tomakehurst.wiremock.client.WireMock;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.cdap.cdap.api.data.format.StructuredRecord;
+import io.cdap.cdap.api.data.schema.Schema;
+import org.apache.hadoop.io.Text;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 public class MixPanelSchemaHelperTest {
   @Rule
@@ -55,4 +66,103 @@ public class MixPanelSchemaHelperTest {
         ex.getMessage());
     }
   }
+
+  @Test
+  public void testGetRecordForEvent() throws IOException {
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/events/properties/top/"))
+        .withBasicAuth("secret", "")
+        .withRequestBody(WireMock.containing("Custom+Event"))
+        .willReturn(WireMock.aResponse().withBody(TestHelper.getResource("describe custom event.json")))
+    );
+
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setMixPanelRestApiUrl(String.format("http://localhost:%d/", wireMockRule.port()))
+      .setApiSecret("secret")
+      .setSchemaByEvents("on")
+      .setEvents("Custom Event")
+      .build();
+
+    Text event = new Text("{\"event\":\"Custom Event\",\"properties\":{\"distinct_id\":\"foo\",\"time\":1518314411,"
+                            + "\"data 1\":\"data ✓\",\"unknown\":\"value\",\"$lib_version\":\"1.0\"}}");
+    Assert.assertEquals(new HashSet<>(Arrays.asList("data 2", "$lib_version", "$event_name", "mp_lib", "data 1")),
+                        new HashSet<>(config.getPropertyNames()));
+    MixPanelFieldMapping fieldMapping = MixPanelFieldMapping.of(config, config.getSchema(), config.getPropertyNames());
+    StructuredRecord record = new MixPanelEventParser(fieldMapping).parse(event);
+    Assert.assertEquals("Custom Event", record.get("event_name"));
+    Assert.assertEquals("foo", record.get("distinct_id"));
+    Assert.assertEquals("1518314411", record.get("time"));
+    Assert.assertEquals("data ✓", record.get("data_1"));
+    Assert.assertEquals("1.0", record.get("lib_version"));
+    Assert.assertNull(record.get("data_2"));
+    Assert.assertNull(record.getSchema().getField("unknown"));
+
+    Assert.assertEquals("data_1", fieldMapping.getField("data 1").getName());
+    Assert.assertEquals("event_name", fieldMapping.getField("$event_name").getName());
+    Assert.assertNull(fieldMapping.getField("unknown"));
+    Assert.assertNull(fieldMapping.getField("$$$"));
+  }
+
+  @Test
+  public void testInferFieldTypes() throws IOException {
+    List<String> events = Arrays.asList(
+      "{\"event\":\"e\",\"properties\":{\"$count\":1,\"price\":2,\"flag\":true,\"name\":\"a\",\"mixed\":1}}",
+      "{\"event\":\"e\",\"properties\":{\"$count\":null,\"price\":2.5,\"flag\":false,\"mixed\":\"b\"}}");
+
+    Map<String, Schema.Type> types = MixPanelSchemaHelper.inferFieldTypes(events.iterator());
+    Assert.assertEquals(Schema.Type.LONG, types.get("count"));
+    Assert.assertEquals(Schema.Type.DOUBLE, types.get("price"));
+    Assert.assertEquals(Schema.Type.BOOLEAN, types.get("flag"));
+    Assert.assertEquals(Schema.Type.STRING, types.get("name"));
+    Assert.assertEquals(Schema.Type.STRING, types.get("mixed"));
+  }
+
+  @Test
+  public void testInferTypesIncrementalWithoutToDate() {
+    String today = LocalDate.now(ZoneId.of("UTC")).toString();
+    WireMock.stubFor(
+      WireMock.post(WireMock.urlMatching("/api/2.0/export/?"))
+        .withBasicAuth("secret", "")
+        .withRequestBody(WireMock.containing("to_date=" + today))
+        .willReturn(WireMock.aResponse().withBody("{\"event\":\"e\",\"properties\":{\"count\":1}}\n"))
+    );
+
+    String url = String.format("http://localhost:%d/", wireMockRule.port());
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setMixPanelDataUrl(url + "api/2.0/export/")
+      .setMixPanelRestApiUrl(url)
+      .setApiSecret("secret")
+      .setSchemaByEvents("on")
+      .setEvents("e")
+      .setEventProperties("count")
+      .setInferTypes("on")
+      .setIncremental("on")
+      .setFromDate("2019-10-01")
+      .setTimeZone("UTC")
+      .build();
+
+    Schema schema = MixPanelSchemaHelper.getSchemaFromConfig(config);
+    Assert.assertEquals(Schema.Type.LONG, schema.getField("count").getSchema().getNonNullable().getType());
+  }
+
+  @Test
+  public void testGetEventTopFieldsConcurrently() throws IOException {
+    for (int i = 1; i <= 2; i++) {
+      WireMock.stubFor(
+        WireMock.post(WireMock.urlMatching("/api/2.0/events/properties/top/"))
+          .withBasicAuth("secret", "")
+          .withRequestBody(WireMock.containing("event" + i))
+          .willReturn(WireMock.aResponse().withBody(String.format("{\"field%d\":{}}", i))
+                        .withFixedDelay(i == 1 ? 200 : 0))
+      );
+    }
+
+    String url = String.format("http://localhost:%d/", wireMockRule.port());
+    List<Collection<String>> fields = MixPanelSchemaHelper.getEventTopFields(
+      new MixPanelApi("secret", url, url), Arrays.asList("event1", "event2", "event1"), 4);
+    Assert.assertEquals(3, fields.size());
+    Assert.assertEquals(Collections.singleton("field1"), new HashSet<>(fields.get(0)));
+    Assert.assertEquals(Collections.singleton("field2"), new HashSet<>(fields.get(1)));
+    Assert.assertEquals(Collections.singleton("field1"), new HashSet<>(fields.get(2)));
+  }
 }
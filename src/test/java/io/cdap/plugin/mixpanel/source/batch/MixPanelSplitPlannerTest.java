@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MixPanelSplitPlannerTest {
+  @Test
+  public void testSingleSplitByDefault() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-10")
+      .build();
+
+    List<MixPanelSplit> splits = new MixPanelSplitPlanner(config).getSplits();
+    Assert.assertEquals(1, splits.size());
+    assertSplit(splits.get(0), "2019-10-01", "2019-10-10");
+  }
+
+  @Test
+  public void testSplitByDays() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-09-29")
+      .setToDate("2019-10-05")
+      .setDaysPerSplit(3)
+      .build();
+
+    List<MixPanelSplit> splits = new MixPanelSplitPlanner(config).getSplits();
+    Assert.assertEquals(3, splits.size());
+    assertSplit(splits.get(0), "2019-09-29", "2019-10-01");
+    assertSplit(splits.get(1), "2019-10-02", "2019-10-04");
+    assertSplit(splits.get(2), "2019-10-05", "2019-10-05");
+  }
+
+  @Test
+  public void testMaxSplits() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-10")
+      .setDaysPerSplit(1)
+      .setMaxSplits(4)
+      .build();
+
+    List<MixPanelSplit> splits = new MixPanelSplitPlanner(config).getSplits();
+    Assert.assertEquals(4, splits.size());
+    assertSplit(splits.get(0), "2019-10-01", "2019-10-03");
+    assertSplit(splits.get(3), "2019-10-10", "2019-10-10");
+  }
+
+  @Test
+  public void testSplitByWindows() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-02")
+      .setSplitWindowMinutes(360)
+      .setTimeZone("UTC")
+      .build();
+
+    List<MixPanelSplit> splits = new MixPanelSplitPlanner(config).getSplits();
+    Assert.assertEquals(8, splits.size());
+    assertSplit(splits.get(0), "2019-10-01", "2019-10-01");
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, splits.get(0).getStartTime());
+    Assert.assertEquals(1569909600L, splits.get(0).getEndTime());
+    Assert.assertEquals(1569909600L, splits.get(1).getStartTime());
+    Assert.assertEquals(1569931200L, splits.get(1).getEndTime());
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, splits.get(3).getEndTime());
+    assertSplit(splits.get(4), "2019-10-02", "2019-10-02");
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, splits.get(4).getStartTime());
+  }
+
+  @Test
+  public void testMaxSplitsWithWindows() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-03")
+      .setSplitWindowMinutes(60)
+      .setMaxSplits(7)
+      .build();
+
+    List<MixPanelSplit> splits = new MixPanelSplitPlanner(config).getSplits();
+    Assert.assertEquals(6, splits.size());
+    Assert.assertEquals(1569931200L, splits.get(0).getEndTime());
+  }
+
+  @Test
+  public void testSplitByEvents() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-02")
+      .setDaysPerSplit(1)
+      .setEvents("e1,e2,e3,e4,e5")
+      .setEventsPerSplit(2)
+      .build();
+
+    List<MixPanelSplit> splits = new MixPanelSplitPlanner(config).getSplits();
+    Assert.assertEquals(6, splits.size());
+    assertSplit(splits.get(0), "2019-10-01", "2019-10-01");
+    Assert.assertEquals(Arrays.asList("e1"), splits.get(0).getEvents());
+    Assert.assertEquals(Arrays.asList("e2", "e3"), splits.get(1).getEvents());
+    Assert.assertEquals(Arrays.asList("e4", "e5"), splits.get(2).getEvents());
+    assertSplit(splits.get(3), "2019-10-02", "2019-10-02");
+    Assert.assertEquals(Arrays.asList("e1"), splits.get(3).getEvents());
+  }
+
+  @Test
+  public void testAdaptiveSplits() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-10-01")
+      .setToDate("2019-10-05")
+      .setEvents("e1,e2,e3")
+      .setEventsPerSplit(2)
+      .setAdaptiveSplits("on")
+      .setTargetEventsPerSplit(100L)
+      .build();
+
+    Map<String, Map<LocalDate, Long>> counts = new HashMap<>();
+    counts.put("e1", new HashMap<>());
+    counts.get("e1").put(LocalDate.parse("2019-10-01"), 30L);
+    counts.get("e1").put(LocalDate.parse("2019-10-02"), 30L);
+    counts.get("e1").put(LocalDate.parse("2019-10-03"), 400L);
+    counts.get("e1").put(LocalDate.parse("2019-10-04"), 80L);
+    counts.put("e2", Collections.singletonMap(LocalDate.parse("2019-10-01"), 10L));
+    counts.put("e3", Collections.singletonMap(LocalDate.parse("2019-10-05"), 20L));
+
+    List<MixPanelSplit> splits = new MixPanelSplitPlanner(config, (events, fromDate, toDate) -> counts).getSplits();
+    Assert.assertEquals(7, splits.size());
+
+    // busiest event gets its own group
+    assertSplit(splits.get(0), "2019-10-01", "2019-10-02");
+    Assert.assertEquals(Collections.singletonList("e1"), splits.get(0).getEvents());
+    Assert.assertEquals(60, splits.get(0).getLength());
+    for (int i = 1; i <= 4; i++) {
+      assertSplit(splits.get(i), "2019-10-03", "2019-10-03");
+      Assert.assertEquals(100, splits.get(i).getLength());
+    }
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, splits.get(1).getStartTime());
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, splits.get(4).getEndTime());
+    assertSplit(splits.get(5), "2019-10-04", "2019-10-05");
+    Assert.assertEquals(80, splits.get(5).getLength());
+
+    assertSplit(splits.get(6), "2019-10-01", "2019-10-05");
+    Assert.assertEquals(Arrays.asList("e3", "e2"), splits.get(6).getEvents());
+    Assert.assertEquals(30, splits.get(6).getLength());
+  }
+
+  @Test
+  public void testSplitWritable() throws IOException {
+    MixPanelSplit split = new MixPanelSplit("2019-10-01", 1569909600L, MixPanelSplit.UNBOUNDED)
+      .forEvents(Arrays.asList("e1", "e2"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    split.write(new DataOutputStream(bytes));
+
+    MixPanelSplit deserialized = new MixPanelSplit();
+    deserialized.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertSplit(deserialized, "2019-10-01", "2019-10-01");
+    Assert.assertEquals(1569909600L, deserialized.getStartTime());
+    Assert.assertEquals(MixPanelSplit.UNBOUNDED, deserialized.getEndTime());
+    Assert.assertEquals(Arrays.asList("e1", "e2"), deserialized.getEvents());
+  }
+
+  private static void assertSplit(MixPanelSplit split, String fromDate, String toDate) {
+    Assert.assertEquals(fromDate, split.getFromDate());
+    Assert.assertEquals(toDate, split.getToDate());
+  }
+}
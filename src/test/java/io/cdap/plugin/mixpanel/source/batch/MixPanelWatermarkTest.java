@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.plugin.mixpanel.source.batch;
+
+import org.apache.hadoop.fs.Path;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.List;
+
+public class MixPanelWatermarkTest {
+  // 2019-10-03T12:00:00Z
+  private static final long NOW = 1570104000L;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testIncrementalWindows() throws IOException {
+    String watermarkPath = new File(temporaryFolder.getRoot(), "watermark").getAbsolutePath();
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-10-01")
+      .setIncremental("on")
+      .setWatermarkPath(watermarkPath)
+      .setWatermarkDelayMinutes(30)
+      .build();
+
+    // first run starts at from date
+    MixPanelWatermark watermark = MixPanelWatermark.getWindow(config, NOW);
+    Assert.assertEquals(1569888000L, watermark.getStartTime());
+    Assert.assertEquals(NOW - 1800, watermark.getEndTime());
+    Assert.assertEquals("2019-10-01", watermark.getFromDate(ZoneId.of("UTC")));
+    Assert.assertEquals("2019-10-03", watermark.getToDate(ZoneId.of("UTC")));
+    watermark.write(watermarkPath);
+
+    // next run continues from watermark
+    watermark = MixPanelWatermark.getWindow(config, NOW + 3600);
+    Assert.assertEquals(NOW - 1800, watermark.getStartTime());
+    Assert.assertEquals(NOW + 1800, watermark.getEndTime());
+    Assert.assertEquals("2019-10-03", watermark.getFromDate(ZoneId.of("UTC")));
+    Assert.assertEquals("2019-10-03", watermark.getToDate(ZoneId.of("UTC")));
+
+    // existing watermark is replaced, temporary file is not left behind
+    watermark.write(watermarkPath);
+    Assert.assertEquals(NOW + 1800, (long) MixPanelWatermark.read(new Path(watermarkPath)));
+    Assert.assertArrayEquals(new String[0], temporaryFolder.getRoot().list((dir, name) -> name.startsWith(".w")));
+
+    // run too early exports nothing
+    Assert.assertTrue(MixPanelWatermark.getWindow(config, NOW).isEmpty());
+  }
+
+  @Test
+  public void testSplitsNarrowedToWindow() {
+    MixPanelBatchSourceConfig config = MixPanelBatchSourceConfig.builder()
+      .setFromDate("2019-10-02")
+      .setToDate("2019-10-03")
+      .setSplitWindowMinutes(720)
+      .build();
+
+    List<MixPanelSplit> splits = new MixPanelSplitPlanner(config).getSplits();
+    Assert.assertEquals(4, splits.size());
+    // window from 2019-10-02T18:00:00Z to 2019-10-03T06:00:00Z
+    Assert.assertTrue(splits.get(0).withinWindow(1570039200L, 1570082400L).isEmptyWindow());
+    MixPanelSplit split = splits.get(1).withinWindow(1570039200L, 1570082400L);
+    Assert.assertEquals(1570039200L, split.getStartTime());
+    Assert.assertEquals(1570082400L, split.getEndTime());
+    split = splits.get(2).withinWindow(1570039200L, 1570082400L);
+    Assert.assertEquals(1570039200L, split.getStartTime());
+    Assert.assertEquals(1570082400L, split.getEndTime());
+    Assert.assertTrue(splits.get(3).withinWindow(1570039200L, 1570082400L).isEmptyWindow());
+  }
+}